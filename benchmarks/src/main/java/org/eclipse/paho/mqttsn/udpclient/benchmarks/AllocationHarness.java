@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.mqttsn.udpclient.MqttsClient;
+import org.eclipse.paho.mqttsn.udpclient.MqttsPayloadCallback;
+import org.eclipse.paho.mqttsn.udpclient.MqttsPublisher;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingReq;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPuback;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublish;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+
+/**
+ * Checks that the steady-state message flows of a client allocate no more than a fixed
+ * budget per cycle on its dispatcher thread ("MqttsClient") and its UDP reader thread
+ * ("UDPInterface"), measured with com.sun.management.ThreadMXBean. A client is connected to a
+ * gateway simulated on the loopback interface and driven through:
+ * <ul>
+ * <li>publish: a QoS 1 PUBLISH of a prepared publisher and its PUBACK</li>
+ * <li>inbound publish: a QoS 1 PUBLISH from the gateway and the PUBACK of the client</li>
+ * <li>ping: a PINGREQ from the gateway and the PINGRESP of the client</li>
+ * </ul>
+ * Prints the bytes per cycle and exits with status 1 if a budget is exceeded, e.g.
+ * <pre>
+ * java -cp target/benchmarks.jar org.eclipse.paho.mqttsn.udpclient.benchmarks.AllocationHarness [cycles]
+ * </pre>
+ * The budgets leave room for the wait node the dispatcher allocates whenever it blocks on its
+ * queue, and for the message object of an inbound PUBLISH; hex dumps, log strings or copied
+ * payloads in these paths exceed them.
+ */
+public class AllocationHarness {
+
+  //bytes per cycle: dispatcher thread, reader thread
+  private final static long[] PUBLISH_BUDGET = {64, 48};
+  private final static long[] INBOUND_PUBLISH_BUDGET = {64, 320};
+  private final static long[] PING_BUDGET = {64, 48};
+
+  private final static int PAYLOAD_SIZE = 64;
+
+  private final com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final Gateway gateway;
+  private final MqttsClient client;
+  private final MqttsPublisher publisher;
+  private final byte[] payload = new byte[PAYLOAD_SIZE];
+
+  private final AtomicLong connected = new AtomicLong();
+  private final AtomicLong pubAcks = new AtomicLong();
+  private final AtomicLong published = new AtomicLong();
+
+  private long dispatcherThread;
+  private long readerThread;
+  private boolean failed;
+
+  private AllocationHarness() throws IOException {
+    ClientLogger.setLogLevel(ClientLogger.WARN);
+    gateway = new Gateway();
+
+    ClientParameters clientParms = new ClientParameters();
+    clientParms.setGatewayAddress(InetAddress.getLoopbackAddress());
+    clientParms.setGatewayPort(gateway.getPort());
+    clientParms.setConnectedChannel(true);
+    clientParms.setZeroCopyPayload(true);
+    client = new MqttsClient(clientParms, false);
+    client.registerHandler(new Callback());
+    publisher = client.preparePublish(MqttsMessage.NORMAL_TOPIC_ID, 17, 1, false);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    AllocationHarness harness = new AllocationHarness();
+    harness.connect();
+    harness.run("publish", PUBLISH_BUDGET, cycles, new Runnable() {
+      public void run() {
+        harness.publishCycle();
+      }
+    });
+    harness.run("inbound publish", INBOUND_PUBLISH_BUDGET, cycles, new Runnable() {
+      public void run() {
+        harness.inboundPublishCycle();
+      }
+    });
+    harness.run("ping", PING_BUDGET, cycles, new Runnable() {
+      public void run() {
+        harness.pingCycle();
+      }
+    });
+    System.exit(harness.failed ? 1 : 0);
+  }
+
+  private void connect() throws InterruptedException {
+    client.connect("allocation-harness", true, (short) 60);
+    while (connected.get() == 0) {
+      Thread.sleep(1);
+    }
+    dispatcherThread = threadId("MqttsClient");
+    readerThread = threadId("UDPInterface");
+  }
+
+  /**
+   * Runs the cycle as many times to warm up, then measures it.
+   */
+  private void run(String name, long[] budget, int cycles, Runnable cycle) {
+    for (int i = 0; i < cycles; i++) {
+      cycle.run();
+    }
+    long dispatcherStart = threadBean.getThreadAllocatedBytes(dispatcherThread);
+    long readerStart = threadBean.getThreadAllocatedBytes(readerThread);
+    for (int i = 0; i < cycles; i++) {
+      cycle.run();
+    }
+    double dispatcher =
+        (threadBean.getThreadAllocatedBytes(dispatcherThread) - dispatcherStart) / (double) cycles;
+    double reader =
+        (threadBean.getThreadAllocatedBytes(readerThread) - readerStart) / (double) cycles;
+    boolean ok = dispatcher <= budget[0] && reader <= budget[1];
+    System.out.printf("%-16s dispatcher %7.1f B/cycle (budget %d)  reader %7.1f B/cycle (budget %d)  %s%n",
+        name, dispatcher, budget[0], reader, budget[1], ok ? "ok" : "OVER BUDGET");
+    failed |= !ok;
+  }
+
+  private void publishCycle() {
+    long acks = pubAcks.get();
+    publisher.publish(payload);
+    while (pubAcks.get() == acks) {
+      Thread.yield();
+    }
+  }
+
+  private void inboundPublishCycle() {
+    long received = gateway.pubAcks.get();
+    gateway.sendPublish(payload);
+    while (gateway.pubAcks.get() == received) {
+      Thread.yield();
+    }
+  }
+
+  private void pingCycle() {
+    long received = gateway.pingResps.get();
+    gateway.sendPingReq();
+    while (gateway.pingResps.get() == received) {
+      Thread.yield();
+    }
+  }
+
+  private long threadId(String name) {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals(name)) {
+        return thread.getId();
+      }
+    }
+    throw new IllegalStateException("Thread " + name + " not found");
+  }
+
+  private class Callback implements MqttsPayloadCallback {
+
+    public int publishArrived(boolean retain, int QoS, int topicIdType, int topicId,
+        ByteBuffer payload) {
+      published.incrementAndGet();
+      return MqttsMessage.RETURN_CODE_ACCEPTED;
+    }
+
+    public int publishArrived(boolean retain, int QoS, int topicId, byte[] thisPayload) {
+      throw new IllegalStateException("Payload copied");
+    }
+
+    public void connected() {
+      connected.incrementAndGet();
+    }
+
+    public void disconnected(int returnType) {
+    }
+
+    public void unsubackReceived() {
+    }
+
+    public void subackReceived(int grandesQos, int topicId, int returnCode) {
+    }
+
+    public void pubCompReceived() {
+    }
+
+    public void pubAckReceived(int topicId, int returnCode) {
+      pubAcks.incrementAndGet();
+    }
+
+    public void regAckReceived(int topicId, int returnCode) {
+    }
+
+    public void registerReceived(int topicId, String topicName) {
+    }
+
+    public void connectSent() {
+    }
+  }
+
+  /**
+   * Answers CONNECT with CONNACK and PUBLISH with PUBACK, sends PUBLISH and PINGREQ on request
+   * and counts the PUBACK and PINGRESP answers of the client. Its allocations are not measured.
+   */
+  private static class Gateway implements Runnable {
+
+    private final DatagramChannel channel;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(1024);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(1024);
+    private volatile SocketAddress client;
+    private int msgId;
+
+    final AtomicLong pubAcks = new AtomicLong();
+    final AtomicLong pingResps = new AtomicLong();
+
+    Gateway() throws IOException {
+      channel = DatagramChannel.open();
+      channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      Thread thread = new Thread(this, "Gateway");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() throws IOException {
+      return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    public void run() {
+      try {
+        while (true) {
+          receiveBuffer.clear();
+          SocketAddress from = channel.receive(receiveBuffer);
+          receiveBuffer.flip();
+          switch (receiveBuffer.get(1)) {
+            case MqttsMessage.CONNECT:
+              client = from;
+              send(from, new byte[] {3, MqttsMessage.CONNACK, MqttsMessage.RETURN_CODE_ACCEPTED});
+              break;
+            case MqttsMessage.PUBLISH:
+              MqttsPublish publish = new MqttsPublish(receiveBuffer);
+              MqttsPuback puback = new MqttsPuback();
+              puback.setTopicId(publish.getTopicId());
+              puback.setMsgId(publish.getMsgId());
+              puback.setReturnCode(MqttsMessage.RETURN_CODE_ACCEPTED);
+              send(from, puback.toBytes());
+              break;
+            case MqttsMessage.PUBACK:
+              pubAcks.incrementAndGet();
+              break;
+            case MqttsMessage.PINGRESP:
+              pingResps.incrementAndGet();
+              break;
+            default:
+              break;
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    void sendPublish(byte[] payload) {
+      MqttsPublish publish = new MqttsPublish();
+      publish.setQos(1);
+      publish.setTopicId(17);
+      publish.setMsgId(msgId = msgId % 0xFFFF + 1);
+      publish.setData(payload);
+      send(client, publish.toBytes());
+    }
+
+    void sendPingReq() {
+      send(client, new MqttsPingReq().toBytes());
+    }
+
+    private synchronized void send(SocketAddress to, byte[] data) {
+      try {
+        sendBuffer.clear();
+        sendBuffer.put(data).flip();
+        channel.send(sendBuffer, to);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
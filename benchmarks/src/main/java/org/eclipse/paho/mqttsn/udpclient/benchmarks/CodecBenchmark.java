@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsFrame;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding of a typical message of every Mqtts message type. Run with
+ * "-prof gc" for the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+  @Param({"ADVERTISE", "SEARCHGW", "GWINFO", "CONNECT", "CONNACK", "WILLTOPICREQ", "WILLTOPIC",
+      "WILLMSGREQ", "WILLMSG", "REGISTER", "REGACK", "PUBLISH", "PUBACK", "PUBCOMP", "PUBREC",
+      "PUBREL", "SUBSCRIBE", "SUBACK", "UNSUBSCRIBE", "UNSUBACK", "PINGREQ", "PINGRESP",
+      "DISCONNECT", "WILLTOPICUPD", "WILLTOPICRESP", "WILLMSGUPD", "WILLMSGRESP"})
+  public String type;
+
+  private int msgType;
+  private MqttsMessage message;
+  private ByteBuffer encoded;
+  private ByteBuffer buffer;
+  private final MqttsFrame frame = new MqttsFrame();
+
+  @Setup
+  public void setup() {
+    msgType = SampleMessages.typeOf(type);
+    message = SampleMessages.create(msgType);
+    encoded = ByteBuffer.wrap(message.toBytes());
+    buffer = ByteBuffer.allocate(message.encodedLength());
+  }
+
+  /**
+   * Encoding into a reused buffer, as the transports send.
+   */
+  @Benchmark
+  public ByteBuffer encodeTo() {
+    buffer.clear();
+    message.encodeTo(buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public byte[] toBytes() {
+    return message.toBytes();
+  }
+
+  /**
+   * Decoding into a message object, with the constructor of the class of the type.
+   */
+  @Benchmark
+  public MqttsMessage decode() throws MqttsException {
+    return SampleMessages.decode(msgType, encoded);
+  }
+
+  /**
+   * Reading all fields through the flyweight view, as the client receives short messages.
+   */
+  @Benchmark
+  public void readFrame(Blackhole bh) {
+    frame.wrap(encoded, 0);
+    bh.consume(frame.msgType());
+    bh.consume(frame.flags());
+    bh.consume(frame.topicId());
+    bh.consume(frame.msgId());
+    bh.consume(frame.returnCode());
+    bh.consume(frame.payloadLength());
+  }
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The length field of Mqtts messages: 1 byte up to 255, 3 bytes (0x01 and the length) above.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LengthBenchmark {
+
+  @Param({"2", "255", "256", "65535"})
+  public int length;
+
+  private final byte[] array = new byte[3];
+  private ByteBuffer buffer;
+
+  @Setup
+  public void setup() {
+    MqttsMessage.setLength(array, length);
+    buffer = ByteBuffer.wrap(array);
+  }
+
+  @Benchmark
+  public byte[] setLength() {
+    return MqttsMessage.setLength(array, length);
+  }
+
+  @Benchmark
+  public int getLengthArray() {
+    return MqttsMessage.getLength(array);
+  }
+
+  @Benchmark
+  public int getLengthBuffer() {
+    return MqttsMessage.getLength(buffer);
+  }
+}
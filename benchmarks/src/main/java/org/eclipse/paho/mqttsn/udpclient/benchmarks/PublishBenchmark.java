@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublish;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublishTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PUBLISH encoding and decoding for each topic id type and payload sizes from empty to the
+ * largest PUBLISH. Payloads of up to 248 bytes have a 1 byte length field, larger ones a
+ * 3 byte length field.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PublishBenchmark {
+
+  //NORMAL_TOPIC_ID, PREDIFINED_TOPIC_ID, SHORT_TOPIC_NAME
+  @Param({"0", "1", "2"})
+  public int topicIdType;
+
+  //the largest payload is that of a PUBLISH of 65535 bytes
+  @Param({"0", "16", "248", "249", "1024", "16384", "65526"})
+  public int payloadSize;
+
+  private MqttsPublish publish;
+  private MqttsPublish prepared;
+  private ByteBuffer encoded;
+  private ByteBuffer buffer;
+
+  @Setup
+  public void setup() {
+    publish = SampleMessages.publish(topicIdType, payloadSize);
+    int topicId = topicIdType == MqttsMessage.SHORT_TOPIC_NAME ? ('t' << 8) | '1' : 17;
+    prepared = new MqttsPublish(new MqttsPublishTemplate(topicIdType, topicId, 1, false), 42,
+        publish.getData());
+    encoded = ByteBuffer.wrap(publish.toBytes());
+    buffer = ByteBuffer.allocate(publish.encodedLength());
+  }
+
+  @Benchmark
+  public ByteBuffer encodeTo() {
+    buffer.clear();
+    publish.encodeTo(buffer);
+    return buffer;
+  }
+
+  /**
+   * Encoding with the header of a {@link MqttsPublishTemplate}, as a prepared publisher sends.
+   */
+  @Benchmark
+  public ByteBuffer encodeFromTemplate() {
+    buffer.clear();
+    prepared.encodeTo(buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public byte[] toBytes() {
+    return publish.toBytes();
+  }
+
+  /**
+   * Decoding with a copy of the payload.
+   */
+  @Benchmark
+  public byte[] decodeCopy() {
+    return new MqttsPublish(encoded, true).getData();
+  }
+
+  /**
+   * Decoding with a view of the payload in the receive buffer (zero-copy payloads).
+   */
+  @Benchmark
+  public ByteBuffer decodeView() {
+    return new MqttsPublish(encoded, false).getPayload();
+  }
+}
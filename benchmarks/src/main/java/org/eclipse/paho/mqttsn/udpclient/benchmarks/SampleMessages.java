@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.benchmarks;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsAdvertise;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsConnack;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsConnect;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsDisconnect;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsGWInfo;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingReq;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingResp;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubComp;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubRec;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubRel;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPuback;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublish;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegack;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegister;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSearchGW;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSuback;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSubscribe;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsUnsuback;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsUnsubscribe;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsg;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsgReq;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsgResp;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsgUpd;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopic;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopicReq;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopicResp;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopicUpd;
+
+/**
+ * A typical message of each Mqtts message type, and decoding of each type with the
+ * constructor of its class.
+ */
+public class SampleMessages {
+
+  /**
+   * @param name the name of the type constant in {@link MqttsMessage}, e.g. "PUBLISH"
+   */
+  public static int typeOf(String name) {
+    try {
+      return MqttsMessage.class.getField(name).getInt(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("Unknown Mqtts message type: " + name);
+    }
+  }
+
+  public static MqttsMessage create(int msgType) {
+    switch (msgType) {
+      case MqttsMessage.ADVERTISE:
+        MqttsAdvertise advertise = new MqttsAdvertise();
+        advertise.setGwId(1);
+        advertise.setDuration(900);
+        return advertise;
+
+      case MqttsMessage.SEARCHGW:
+        MqttsSearchGW searchGw = new MqttsSearchGW();
+        searchGw.setRadius(1);
+        return searchGw;
+
+      case MqttsMessage.GWINFO:
+        MqttsGWInfo gwInfo = new MqttsGWInfo();
+        gwInfo.setGwId(1);
+        gwInfo.setGwAdd(new byte[] {10, 0, 0, 1, 0x07, 0x5B});
+        return gwInfo;
+
+      case MqttsMessage.CONNECT:
+        MqttsConnect connect = new MqttsConnect();
+        connect.setCleanSession(true);
+        connect.setDuration(60);
+        connect.setClientId("sensor-000001");
+        return connect;
+
+      case MqttsMessage.CONNACK:
+        MqttsConnack connack = new MqttsConnack();
+        connack.setReturnCode(MqttsMessage.RETURN_CODE_ACCEPTED);
+        return connack;
+
+      case MqttsMessage.WILLTOPICREQ:
+        return new MqttsWillTopicReq();
+
+      case MqttsMessage.WILLTOPIC:
+        MqttsWillTopic willTopic = new MqttsWillTopic();
+        willTopic.setQos(1);
+        willTopic.setWillTopic("sensors/000001/status");
+        return willTopic;
+
+      case MqttsMessage.WILLMSGREQ:
+        return new MqttsWillMsgReq();
+
+      case MqttsMessage.WILLMSG:
+        MqttsWillMsg willMsg = new MqttsWillMsg();
+        willMsg.setWillMsg("offline");
+        return willMsg;
+
+      case MqttsMessage.REGISTER:
+        MqttsRegister register = new MqttsRegister();
+        register.setTopicId(0);
+        register.setMsgId(42);
+        register.setTopicName("sensors/000001/temperature");
+        return register;
+
+      case MqttsMessage.REGACK:
+        MqttsRegack regack = new MqttsRegack();
+        regack.setTopicId(17);
+        regack.setMsgId(42);
+        regack.setReturnCode(MqttsMessage.RETURN_CODE_ACCEPTED);
+        return regack;
+
+      case MqttsMessage.PUBLISH:
+        return publish(MqttsMessage.NORMAL_TOPIC_ID, 16);
+
+      case MqttsMessage.PUBACK:
+        MqttsPuback puback = new MqttsPuback();
+        puback.setTopicId(17);
+        puback.setMsgId(42);
+        puback.setReturnCode(MqttsMessage.RETURN_CODE_ACCEPTED);
+        return puback;
+
+      case MqttsMessage.PUBCOMP:
+        MqttsPubComp pubComp = new MqttsPubComp();
+        pubComp.setMsgId(42);
+        return pubComp;
+
+      case MqttsMessage.PUBREC:
+        MqttsPubRec pubRec = new MqttsPubRec();
+        pubRec.setMsgId(42);
+        return pubRec;
+
+      case MqttsMessage.PUBREL:
+        MqttsPubRel pubRel = new MqttsPubRel();
+        pubRel.setMsgId(42);
+        return pubRel;
+
+      case MqttsMessage.SUBSCRIBE:
+        return subscribe(MqttsMessage.TOPIC_NAME);
+
+      case MqttsMessage.SUBACK:
+        MqttsSuback suback = new MqttsSuback();
+        suback.setGrantedQoS(1);
+        suback.setTopicId(17);
+        suback.setMsgId(42);
+        suback.setReturnCode(MqttsMessage.RETURN_CODE_ACCEPTED);
+        return suback;
+
+      case MqttsMessage.UNSUBSCRIBE:
+        return unsubscribe(MqttsMessage.TOPIC_NAME);
+
+      case MqttsMessage.UNSUBACK:
+        MqttsUnsuback unsuback = new MqttsUnsuback();
+        unsuback.setMsgId(42);
+        return unsuback;
+
+      case MqttsMessage.PINGREQ:
+        return new MqttsPingReq();
+
+      case MqttsMessage.PINGRESP:
+        return new MqttsPingResp();
+
+      case MqttsMessage.DISCONNECT:
+        return new MqttsDisconnect();
+
+      case MqttsMessage.WILLTOPICUPD:
+        MqttsWillTopicUpd willTopicUpd = new MqttsWillTopicUpd();
+        willTopicUpd.setQos(1);
+        willTopicUpd.setWillTopic("sensors/000001/status");
+        return willTopicUpd;
+
+      case MqttsMessage.WILLTOPICRESP:
+        return new MqttsWillTopicResp();
+
+      case MqttsMessage.WILLMSGUPD:
+        MqttsWillMsgUpd willMsgUpd = new MqttsWillMsgUpd();
+        willMsgUpd.setWillMsg("offline");
+        return willMsgUpd;
+
+      case MqttsMessage.WILLMSGRESP:
+        return new MqttsWillMsgResp();
+
+      default:
+        throw new IllegalArgumentException("Unknown Mqtts message type: " + msgType);
+    }
+  }
+
+  /**
+   * @param topicIdType NORMAL_TOPIC_ID, PREDIFINED_TOPIC_ID or SHORT_TOPIC_NAME
+   */
+  public static MqttsPublish publish(int topicIdType, int payloadSize) {
+    MqttsPublish publish = new MqttsPublish();
+    publish.setQos(1);
+    publish.setTopicIdType(topicIdType);
+    if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME) {
+      publish.setShortTopicName("t1");
+    } else {
+      publish.setTopicId(17);
+    }
+    publish.setMsgId(42);
+    publish.setData(payload(payloadSize));
+    return publish;
+  }
+
+  /**
+   * @param topicIdType TOPIC_NAME, PREDIFINED_TOPIC_ID or SHORT_TOPIC_NAME
+   */
+  public static MqttsSubscribe subscribe(int topicIdType) {
+    MqttsSubscribe subscribe = new MqttsSubscribe();
+    subscribe.setQos(1);
+    subscribe.setMsgId(42);
+    subscribe.setTopicIdType(topicIdType);
+    if (topicIdType == MqttsMessage.TOPIC_NAME) {
+      subscribe.setTopicName("sensors/+/temperature");
+    } else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID) {
+      subscribe.setPredefinedTopicId(17);
+    } else {
+      subscribe.setShortTopicName("t1");
+    }
+    return subscribe;
+  }
+
+  /**
+   * @param topicIdType TOPIC_NAME, PREDIFINED_TOPIC_ID or SHORT_TOPIC_NAME
+   */
+  public static MqttsUnsubscribe unsubscribe(int topicIdType) {
+    MqttsUnsubscribe unsubscribe = new MqttsUnsubscribe();
+    unsubscribe.setMsgId(42);
+    unsubscribe.setTopicIdType(topicIdType);
+    if (topicIdType == MqttsMessage.TOPIC_NAME) {
+      unsubscribe.setTopicName("sensors/+/temperature");
+    } else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID) {
+      unsubscribe.setPredefinedTopicId(17);
+    } else {
+      unsubscribe.setShortTopicName("t1");
+    }
+    return unsubscribe;
+  }
+
+  public static byte[] payload(int size) {
+    byte[] payload = new byte[size];
+    for (int i = 0; i < size; i++) {
+      payload[i] = (byte) i;
+    }
+    return payload;
+  }
+
+  /**
+   * Decodes the message at the position of the buffer with the constructor of its class.
+   */
+  public static MqttsMessage decode(int msgType, ByteBuffer data) throws MqttsException {
+    switch (msgType) {
+      case MqttsMessage.ADVERTISE:
+        return new MqttsAdvertise(data);
+      case MqttsMessage.SEARCHGW:
+        return new MqttsSearchGW(data);
+      case MqttsMessage.GWINFO:
+        return new MqttsGWInfo(data);
+      case MqttsMessage.CONNECT:
+        return new MqttsConnect(data);
+      case MqttsMessage.CONNACK:
+        return new MqttsConnack(data);
+      case MqttsMessage.WILLTOPICREQ:
+        return new MqttsWillTopicReq(data);
+      case MqttsMessage.WILLTOPIC:
+        return new MqttsWillTopic(data);
+      case MqttsMessage.WILLMSGREQ:
+        return new MqttsWillMsgReq(data);
+      case MqttsMessage.WILLMSG:
+        return new MqttsWillMsg(data);
+      case MqttsMessage.REGISTER:
+        return new MqttsRegister(data);
+      case MqttsMessage.REGACK:
+        return new MqttsRegack(data);
+      case MqttsMessage.PUBLISH:
+        return new MqttsPublish(data);
+      case MqttsMessage.PUBACK:
+        return new MqttsPuback(data);
+      case MqttsMessage.PUBCOMP:
+        return new MqttsPubComp(data);
+      case MqttsMessage.PUBREC:
+        return new MqttsPubRec(data);
+      case MqttsMessage.PUBREL:
+        return new MqttsPubRel(data);
+      case MqttsMessage.SUBSCRIBE:
+        return new MqttsSubscribe(data);
+      case MqttsMessage.SUBACK:
+        return new MqttsSuback(data);
+      case MqttsMessage.UNSUBSCRIBE:
+        return new MqttsUnsubscribe(data);
+      case MqttsMessage.UNSUBACK:
+        return new MqttsUnsuback(data);
+      case MqttsMessage.PINGREQ:
+        return new MqttsPingReq(data);
+      case MqttsMessage.PINGRESP:
+        return new MqttsPingResp(data);
+      case MqttsMessage.DISCONNECT:
+        return new MqttsDisconnect(data);
+      case MqttsMessage.WILLTOPICUPD:
+        return new MqttsWillTopicUpd(data);
+      case MqttsMessage.WILLTOPICRESP:
+        return new MqttsWillTopicResp(data);
+      case MqttsMessage.WILLMSGUPD:
+        return new MqttsWillMsgUpd(data);
+      case MqttsMessage.WILLMSGRESP:
+        return new MqttsWillMsgResp(data);
+      default:
+        throw new IllegalArgumentException("Unknown Mqtts message type: " + msgType);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSubscribe;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsUnsubscribe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SUBSCRIBE and UNSUBSCRIBE for each topic id type. A new message is created for every
+ * encoding, as the client does, so topic names are taken from the
+ * {@link org.eclipse.paho.mqttsn.udpclient.utils.TopicCache}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopicBenchmark {
+
+  //TOPIC_NAME, PREDIFINED_TOPIC_ID, SHORT_TOPIC_NAME
+  @Param({"0", "1", "2"})
+  public int topicIdType;
+
+  private ByteBuffer buffer;
+  private ByteBuffer subscribe;
+  private ByteBuffer unsubscribe;
+
+  @Setup
+  public void setup() {
+    buffer = ByteBuffer.allocate(256);
+    subscribe = ByteBuffer.wrap(SampleMessages.subscribe(topicIdType).toBytes());
+    unsubscribe = ByteBuffer.wrap(SampleMessages.unsubscribe(topicIdType).toBytes());
+  }
+
+  @Benchmark
+  public ByteBuffer encodeSubscribe() {
+    buffer.clear();
+    SampleMessages.subscribe(topicIdType).encodeTo(buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public ByteBuffer encodeUnsubscribe() {
+    buffer.clear();
+    SampleMessages.unsubscribe(topicIdType).encodeTo(buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public MqttsSubscribe decodeSubscribe() throws MqttsException {
+    return new MqttsSubscribe(subscribe);
+  }
+
+  @Benchmark
+  public MqttsUnsubscribe decodeUnsubscribe() throws MqttsException {
+    return new MqttsUnsubscribe(unsubscribe);
+  }
+}
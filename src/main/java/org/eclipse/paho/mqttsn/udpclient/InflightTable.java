@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient;
+
+import java.util.Arrays;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+
+/**
+ * The in-flight window of a client: the requests sent to the gateway and not acknowledged yet,
+ * keyed by their MsgId, with the time each was last sent and how often it was retransmitted.
+ * An open addressing hash table with linear probing, sized for the window so it never grows.
+ * Requests are added by the application threads and removed by the client thread, so the
+ * methods are synchronized.
+ */
+final class InflightTable {
+
+  private final static int FREE = -1;
+
+  private final int capacity;
+  private final int mask;
+  private final int[] ids;
+  private final MqttsMessage[] messages;
+  //System.nanoTime() of the last send, and the retransmissions so far
+  private final long[] sentAt;
+  private final int[] retries;
+  private int size;
+
+  /**
+   * @param capacity the most requests in flight at once
+   */
+  InflightTable(int capacity) {
+    if (capacity < 1 || capacity > 0xFFFF) {
+      throw new IllegalArgumentException("In-flight window out of range: " + capacity);
+    }
+    this.capacity = capacity;
+    //at most half full, so the probe sequences stay short
+    int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+    this.mask = slots - 1;
+    this.ids = new int[slots];
+    this.messages = new MqttsMessage[slots];
+    this.sentAt = new long[slots];
+    this.retries = new int[slots];
+    Arrays.fill(ids, FREE);
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized boolean isEmpty() {
+    return size == 0;
+  }
+
+  synchronized boolean isFull() {
+    return size >= capacity;
+  }
+
+  /**
+   * Adds a request, or replaces the one with the same MsgId (e.g. a PUBLISH by its PUBREL).
+   *
+   * @param now System.nanoTime() when the request is sent
+   * @return false if the window is full
+   */
+  synchronized boolean put(int msgId, MqttsMessage msg, long now) {
+    int i = indexOf(msgId);
+    if (ids[i] == FREE) {
+      if (size >= capacity) {
+        return false;
+      }
+      ids[i] = msgId;
+      size++;
+    }
+    messages[i] = msg;
+    sentAt[i] = now;
+    retries[i] = 0;
+    return true;
+  }
+
+  /**
+   * @return the request with this MsgId, null if there is none in flight
+   */
+  synchronized MqttsMessage get(int msgId) {
+    return messages[indexOf(msgId)];
+  }
+
+  /**
+   * Removes the request with this MsgId from the window.
+   *
+   * @return the request, null if there is none in flight
+   */
+  synchronized MqttsMessage remove(int msgId) {
+    int i = indexOf(msgId);
+    MqttsMessage msg = messages[i];
+    if (msg == null) {
+      return null;
+    }
+    //move the following entries of the probe sequence up, so no entry is behind a free slot
+    for (int j = (i + 1) & mask; ids[j] != FREE; j = (j + 1) & mask) {
+      int home = ids[j] & mask;
+      boolean stays = i <= j ? i < home && home <= j : i < home || home <= j;
+      if (!stays) {
+        ids[i] = ids[j];
+        messages[i] = messages[j];
+        sentAt[i] = sentAt[j];
+        retries[i] = retries[j];
+        i = j;
+      }
+    }
+    ids[i] = FREE;
+    messages[i] = null;
+    size--;
+    return msg;
+  }
+
+  /**
+   * Takes the requests last sent before a time for retransmission: copies them and their
+   * retransmission count, including this one, into the arrays (which must hold at least the
+   * capacity) and counts them as sent now.
+   *
+   * @param sentBefore System.nanoTime() before which a request has waited too long
+   * @param now System.nanoTime() when the requests are sent again
+   * @return the number of requests copied
+   */
+  synchronized int expire(long sentBefore, long now, MqttsMessage[] out, int[] outRetries) {
+    int count = 0;
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] != FREE && sentAt[i] - sentBefore < 0) {
+        sentAt[i] = now;
+        retries[i]++;
+        out[count] = messages[i];
+        outRetries[count] = retries[i];
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Counts the retransmissions of all requests from zero again, e.g. after reconnecting.
+   */
+  synchronized void resetRetries() {
+    Arrays.fill(retries, 0);
+  }
+
+  synchronized void clear() {
+    Arrays.fill(ids, FREE);
+    Arrays.fill(messages, null);
+    Arrays.fill(retries, 0);
+    size = 0;
+  }
+
+  /**
+   * @return the slot of the MsgId, or the free slot where it would go
+   */
+  private int indexOf(int msgId) {
+    int i = msgId & mask;
+    while (ids[i] != FREE && ids[i] != msgId) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+}
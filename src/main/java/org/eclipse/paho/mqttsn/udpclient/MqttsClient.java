@@ -19,38 +19,36 @@ package org.eclipse.paho.mqttsn.udpclient;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 //import java.util.Hashtable;
 
 import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
 import org.eclipse.paho.mqttsn.udpclient.messages.Message;
 import org.eclipse.paho.mqttsn.udpclient.messages.control.ControlMessage;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsConnack;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsConnect;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsDisconnect;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsEncodedMessage;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsFrame;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingReq;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingResp;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubComp;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubRec;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessageHandler;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubRel;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPuback;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublish;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublishTemplate;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegack;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegister;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSuback;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegistry;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSubscribe;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsUnsuback;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsUnsubscribe;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsg;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsgReq;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsgResp;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopic;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopicReq;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopicResp;
 import org.eclipse.paho.mqttsn.udpclient.timer.TimerService;
+import org.eclipse.paho.mqttsn.udpclient.transport.ClientTransport;
+import org.eclipse.paho.mqttsn.udpclient.transport.FrameDecoder;
 import org.eclipse.paho.mqttsn.udpclient.udp.UDPInterface;
 import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
 import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientThreads;
 import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
@@ -61,17 +59,39 @@ public class MqttsClient implements Runnable {
 
   private static final int MQTTS_BACKUP_MESSAGE = 0x00;
   private static final int MQTTS_BACKUP_SEND_MESSAGE = 0x01;
+  //the ACK timer (millisecond clock) may fire a little before a request tracked just before
+  //it was started is waitingTime old (nanosecond clock); it must not wait a second period
+  private static final long ACK_TIMER_SLACK_NANOS = 20000000L;
 
   private MqttsMessage message = null;
-
-  private int msgId;
+  //a keep-alive PINGREQ waiting for its PINGRESP, kept apart from the backed up message so
+  //that it does not hold up the requests of the in-flight window
+  private boolean pingOutstanding;
+  //the requests acknowledged by MsgId that are waiting for their acknowledgement, and the
+  //arrays those waiting too long are copied into for retransmission
+  private InflightTable inflight;
+  private MqttsMessage[] resend;
+  private int[] resendRetries;
+
+  //the MsgIds of the requests in flight
+  private final MsgIdAllocator msgIds = new MsgIdAllocator();
   private ClientState clState;
   private volatile boolean running;
 
   private boolean lostGw = false;
   private MqttsCallback callback = null;
-  private UDPInterface udpInterface = null;
+  private ClientTransport transport = null;
   private MsgQueue queue = null;
+  //messages taken from the queue at once by the client thread
+  private final Object[] batch = new Object[FrameDecoder.MAX_BATCH];
+  //view of the short message being handled, and the buffer for encoding one (client thread)
+  private final MqttsFrame frame = new MqttsFrame();
+  private final ByteBuffer frameBuffer = ByteBuffer.allocate(Message.MAX_FRAME_LENGTH);
+  //acks sent by the client thread, reused since the transport encodes them right away
+  private final MqttsPuback puback = new MqttsPuback();
+  private final MqttsRegack regack = new MqttsRegack();
+  //what is done with each received message type
+  private final MqttsRegistry registry = createRegistry();
   private Thread readThread = null;
   private TimerService timer = null;
   private ClientParameters clientParms = null;
@@ -107,23 +127,45 @@ public class MqttsClient implements Runnable {
       clientParms.setMaxRetries(maxRetries);
       clientParms.setWaitingTime(ackWaitingTime);
 
+      start(autoReconnect);
+    } catch (UnknownHostException e) {
+      ClientLogger.log(ClientLogger.ERROR, "" + e);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Creates a client from a fully populated parameter set, e.g. one that shares a
+   * {@link org.eclipse.paho.mqttsn.udpclient.udp.UDPSelectorGroup} with other clients.
+   */
+  public MqttsClient(ClientParameters clientParms, boolean autoReconnect) {
+    this.clientParms = clientParms;
+    start(autoReconnect);
+  }
+
+  private void start(boolean autoReconnect) {
+    try {
       this.clState = ClientState.NOT_ACTIVE;
-      this.msgId = 1;
       this.autoReconnect = autoReconnect;
+      this.inflight = new InflightTable(clientParms.getMaxInflight());
+      this.resend = new MqttsMessage[inflight.getCapacity()];
+      this.resendRetries = new int[inflight.getCapacity()];
 
-      queue = new MsgQueue();
+      queue = new MsgQueue(clientParms.getMaxInboundQueue());
       timer = new TimerService(queue);
 
-      udpInterface = new UDPInterface();
-      udpInterface.initialize(queue, clientParms);
+      transport = clientParms.getTransport() != null ? clientParms.getTransport()
+          : new UDPInterface();
+      transport.initialize(queue, clientParms);
 
       //create thread for reading
-      this.readThread = new Thread(this, "MqttsClient");
+      this.readThread = ClientThreads.newThread(this, "MqttsClient",
+          clientParms.isVirtualThreads());
       this.running = true;
       this.readThread.start();
 
       String s = null;
-      if (UDPInterface.ENCAPS) {
+      if (transport.isEncapsulated()) {
         s = " with ";
       } else {
         s = " without ";
@@ -135,9 +177,6 @@ public class MqttsClient implements Runnable {
     } catch (MqttsException e) {
       ClientLogger.log(ClientLogger.ERROR, "" + e);
       e.printStackTrace();
-    } catch (UnknownHostException e) {
-      ClientLogger.log(ClientLogger.ERROR, "" + e);
-      e.printStackTrace();
     }
   }
 
@@ -178,6 +217,17 @@ public class MqttsClient implements Runnable {
     this.clState = ClientState.WAITING_CONNECT;
   }
 
+  /**
+   * Replaces the handling of a message type that is delivered as message object: ADVERTISE,
+   * SEARCHGW and GWINFO (only logged by default), REGISTER or PUBLISH. The handler is called by
+   * the client thread; null ignores the type. Must be set before connecting.
+   *
+   * @throws IllegalArgumentException for other types
+   */
+  public void setMessageHandler(int msgType, MqttsMessageHandler handler) {
+    registry.setMessageHandler(msgType, handler);
+  }
+
   public boolean connect(String clientid, boolean cleanstart, int keepalive,
       String willtopic, int willQoS, String willmsg, boolean willretain) {
 
@@ -208,7 +258,7 @@ public class MqttsClient implements Runnable {
 
   public void wakeupForNewMessages() {
     ClientLogger.log(ClientLogger.INFO, "Waking up to receive new messages");
-    udpInterface.sendMsg(new MqttsPingReq());
+    transport.sendMsg(MqttsEncodedMessage.PINGREQ_FRAME);
   }
 
   public boolean connect(String clientid, boolean cleanstart, short keepalive) {
@@ -231,7 +281,7 @@ public class MqttsClient implements Runnable {
 
   public boolean disconnect() {
 
-    MqttsDisconnect msg = new MqttsDisconnect();
+    MqttsMessage msg = MqttsEncodedMessage.DISCONNECT_FRAME;
 
     switch (this.clState) {
       case NOT_ACTIVE:
@@ -244,6 +294,7 @@ public class MqttsClient implements Runnable {
         // no need for sending a DISC since we are not connected
         this.clState = ClientState.WAITING_CONNECT;
         timer.unregisterAll();
+        clearInflight();
         callback.disconnected(MqttsCallback.MQTTS_OK);
         break;
 
@@ -254,8 +305,8 @@ public class MqttsClient implements Runnable {
         timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
         timer.unregister(ControlMessage.KEEP_ALIVE);
         this.clState = ClientState.DISCONNECTING;
-        ClientLogger.log(ClientLogger.INFO, "DISCONNECT sent: " + Utils.hexString(msg.toBytes()));
-        udpInterface.sendMsg(msg);
+        logMessage("DISCONNECT sent: ", msg);
+        transport.sendMsg(msg);
 
         break;
 
@@ -270,7 +321,8 @@ public class MqttsClient implements Runnable {
       case READY:
       case WAITING_ACK:
         waitingDisconnectACK = true;
-        udpInterface.sendMsg(new MqttsDisconnect(sleepingTime));
+        transport.sendMsg(sleepingTime > 0 ? new MqttsDisconnect(sleepingTime)
+            : MqttsEncodedMessage.DISCONNECT_FRAME);
         this.clState = ClientState.SLEEP;
     }
   }
@@ -281,9 +333,7 @@ public class MqttsClient implements Runnable {
 
   public boolean publish(int topicIdType, int topicId, byte[] message, int qos, boolean retain) {
 
-    if (this.clState != ClientState.READY) {
-      ClientLogger.log(ClientLogger.WARN,
-          "client not ready, publish() ignored! " + "Client state = " + this.clState);
+    if (!isReady("publish()", qos == 1 || qos == 2)) {
       return false;
     }
 
@@ -313,25 +363,51 @@ public class MqttsClient implements Runnable {
     msg.setTopicIdType(topicIdType);
     msg.setData(message);
 
-    if (qos != 0) {
-      /* backup the message for the ack */
-      mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
+    return sendPublish(msg);
+  }
 
-      /* timers */
-      timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-      timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-      clState = ClientState.WAITING_ACK;
+  /**
+   * Returns a publisher for frequent publishes to one topic. It encodes the header of the
+   * PUBLISH messages once instead of on every publish.
+   *
+   * @param topicIdType NORMAL_TOPIC_ID, PREDIFINED_TOPIC_ID or SHORT_TOPIC_NAME; for a short
+   * topic name the topic id holds its two characters as (first << 8) | second
+   * @throws IllegalArgumentException for an unknown topic id type or a topic id out of range
+   */
+  public MqttsPublisher preparePublish(int topicIdType, int topicId, int qos, boolean retain) {
+    return new MqttsPublisher(this, new MqttsPublishTemplate(topicIdType, topicId, qos, retain));
+  }
+
+  boolean publish(MqttsPublishTemplate template, byte[] message) {
+
+    int qos = template.getQos();
+    if (!isReady("publish()", qos == 1 || qos == 2)) {
+      return false;
+    }
+
+    int id = qos == 1 || qos == 2 ? getNewMsgId() : 0;
+    return sendPublish(new MqttsPublish(template, id, message));
+  }
+
+  private boolean sendPublish(MqttsPublish msg) {
+    int qos = msg.getQos();
+    if ((qos == 1 || qos == 2) && !track(msg.getMsgId(), msg)) {
+      return false;
     }
     /* Send the message */
-    ClientLogger
-        .log(ClientLogger.INFO, "Send PUBLISH to gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Send PUBLISH to gateway: ", msg);
+    if (!transport.sendMsg(msg)) {
+      //not sent at all (e.g. the send queue of a paced client stayed full), let the caller retry
+      if (qos == 1 || qos == 2) {
+        untrack(msg.getMsgId());
+      }
+      return false;
+    }
     return true;
   }
 
   public boolean subscribe(String topicName, int qos, int topicIdType) {
-    if (this.clState != ClientState.READY) {
-      ClientLogger.log(ClientLogger.WARN, "client not ready, subscribe() ignored!");
+    if (!isReady("subscribe()", true)) {
       return false;
     }
 
@@ -349,24 +425,17 @@ public class MqttsClient implements Runnable {
     int id = getNewMsgId();
     msg.setMsgId(id);
 
-    /* backup the message for the ack */
-    mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
-
-    /* timers */
-    timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-    timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-
-    clState = ClientState.WAITING_ACK;
+    if (!track(id, msg)) {
+      return false;
+    }
     /* Send the message */
-    ClientLogger
-        .log(ClientLogger.INFO, "Send SUBSCRIBE to gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Send SUBSCRIBE to gateway: ", msg);
+    transport.sendMsg(msg);
     return true;
   }
 
   public boolean subscribe(int topicId, int qos) {
-    if (this.clState != ClientState.READY) {
-      ClientLogger.log(ClientLogger.WARN, "client not ready, subscribe2() ignored!");
+    if (!isReady("subscribe2()", true)) {
       return false;
     }
 
@@ -377,24 +446,17 @@ public class MqttsClient implements Runnable {
     int id = getNewMsgId();
     msg.setMsgId(id);
 
-    /* backup the message for the ack */
-    mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
-
-    /* timers */
-    timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-    timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-
-    clState = ClientState.WAITING_ACK;
+    if (!track(id, msg)) {
+      return false;
+    }
     /* Send the message */
-    ClientLogger
-        .log(ClientLogger.INFO, "Send SUBSCRIBE to gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Send SUBSCRIBE to gateway: ", msg);
+    transport.sendMsg(msg);
     return true;
   }
 
   public boolean unSubscribe(String topicName, int topicIdType) {
-    if (this.clState != ClientState.READY) {
-      ClientLogger.log(ClientLogger.WARN, "client not ready, unsubscribe1() ignored!");
+    if (!isReady("unsubscribe1()", true)) {
       return false;
     }
 
@@ -412,24 +474,17 @@ public class MqttsClient implements Runnable {
     int id = getNewMsgId();
     msg.setMsgId(id);
 
-    /* backup the message for the ack */
-    mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
-
-    /* timers */
-    timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-    timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-
-    clState = ClientState.WAITING_ACK;
+    if (!track(id, msg)) {
+      return false;
+    }
     /* Send the message */
-    ClientLogger
-        .log(ClientLogger.INFO, "Send UNSUBSCRIBE to gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Send UNSUBSCRIBE to gateway: ", msg);
+    transport.sendMsg(msg);
     return true;
   }
 
   public boolean unSubscribe(int topicId) {
-    if (this.clState != ClientState.READY) {
-      ClientLogger.log(ClientLogger.WARN, "client not ready, subscribe2() ignored!");
+    if (!isReady("unsubscribe2()", true)) {
       return false;
     }
 
@@ -439,24 +494,18 @@ public class MqttsClient implements Runnable {
     msg.setPredefinedTopicId(topicId);
     int id = getNewMsgId();
     msg.setMsgId(id);
-    /* backup the message for the ack */
-    mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
 
-    /* timers */
-    timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-    timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-
-    clState = ClientState.WAITING_ACK;
+    if (!track(id, msg)) {
+      return false;
+    }
     /* Send the message */
-    ClientLogger
-        .log(ClientLogger.INFO, "Send UNSUBSCRIBE to gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Send UNSUBSCRIBE to gateway: ", msg);
+    transport.sendMsg(msg);
     return true;
   }
 
   public boolean register(String topicName) {
-    if (this.clState != ClientState.READY) {
-      ClientLogger.log(ClientLogger.WARN, "client not ready, register() ignored! " + this.clState);
+    if (!isReady("register()", true)) {
       return false;
     }
 
@@ -466,26 +515,88 @@ public class MqttsClient implements Runnable {
     msg.setMsgId(msgId);
     msg.setTopicName(topicName);
 
-    /* backup the message for the ack */
-    mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
-
-    /* timers */
-    timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-    timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-
     /* we waiting for REGACK */
-    clState = ClientState.WAITING_ACK;
+    if (!track(msgId, msg)) {
+      return false;
+    }
     /* Send the message */
-    ClientLogger
-        .log(ClientLogger.INFO, "Send REGISTER to gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Send REGISTER to gateway: ", msg);
+    transport.sendMsg(msg);
     return true;
   }
 
+  /**
+   * Checks that a request can be sent now: the client is connected and waits for no
+   * acknowledgement other than a PINGRESP and those of the in-flight window, which must have
+   * room if the request is acknowledged.
+   *
+   * @param operation the name of the request for the log
+   */
+  private boolean isReady(String operation, boolean acknowledged) {
+    if (clState != ClientState.READY
+        && (clState != ClientState.WAITING_ACK || this.message != null)) {
+      ClientLogger.log(ClientLogger.WARN,
+          "client not ready, " + operation + " ignored! " + "Client state = " + this.clState);
+      return false;
+    }
+    if (acknowledged && inflight.isFull()) {
+      ClientLogger.log(ClientLogger.WARN, "in-flight window full ("
+          + inflight.getCapacity() + " messages), " + operation + " ignored!");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Keeps a request in the in-flight window until the gateway acknowledges its MsgId, and
+   * starts the timers for the acknowledgement.
+   *
+   * @return false if the window is full or the MsgId is 0
+   */
+  private boolean track(int msgId, MqttsMessage msg) {
+    if (msgId == 0) {
+      //no MsgId was free, see getNewMsgId()
+      return false;
+    }
+    synchronized (inflight) {
+      if (!inflight.put(msgId, msg, System.nanoTime())) {
+        ClientLogger.log(ClientLogger.WARN, "in-flight window full ("
+            + inflight.getCapacity() + " messages), message with MsgId " + msgId + " ignored!");
+        msgIds.release(msgId);
+        return false;
+      }
+      timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
+      timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
+      clState = ClientState.WAITING_ACK;
+      return true;
+    }
+  }
+
+  /**
+   * Takes back a request that track() put into the in-flight window but that was not sent.
+   */
+  private void untrack(int msgId) {
+    synchronized (inflight) {
+      inflight.remove(msgId);
+      msgIds.release(msgId);
+      readyIfNothingOutstanding();
+    }
+  }
+
+  private void readyIfNothingOutstanding() {
+    synchronized (inflight) {
+      if (clState == ClientState.WAITING_ACK && this.message == null && !pingOutstanding
+          && inflight.isEmpty()) {
+        timer.unregister(ControlMessage.ACK);
+        clState = ClientState.READY;
+      }
+    }
+  }
+
   public void terminate() {
     // terminate udp reader
     ClientLogger.log(ClientLogger.INFO, "Closing UDP ...");
-    this.udpInterface.terminate();
+    this.transport.terminate();
     // unregister all timers
     ClientLogger.log(ClientLogger.INFO, "Stopping all timers ...");
     this.timer.terminate();
@@ -523,8 +634,20 @@ public class MqttsClient implements Runnable {
     clientParms.setWaitingTime(t);
   }
 
+  /**
+   * @return the number of received messages of this type dropped because the inbound queue had
+   * reached its shedding threshold (see {@link ClientParameters#setMaxInboundQueue(int)})
+   */
+  public long getShedCount(int msgType) {
+    return queue.getShedCount(msgType);
+  }
+
+  public long getShedTotal() {
+    return queue.getShedTotal();
+  }
+
   public int getLocalUDPPort() {
-    return udpInterface.getUdpPort();
+    return transport.getLocalPort();
   }
 
   /******************************************************************************************/
@@ -538,141 +661,89 @@ public class MqttsClient implements Runnable {
       return;
     }
 
-    //get the type of the Mqtts message and handle the message according to that type
-    switch (receivedMsg.getMsgType()) {
-      case MqttsMessage.ADVERTISE:
-        ClientLogger.log(ClientLogger.INFO, "ADVERTISE message");
-        //handleMqttsAdvertise((MqttsAdvertise) receivedMsg);
-        break;
-
-      case MqttsMessage.SEARCHGW:
-        System.out.println(("search gw"));
-        //handleMqttsSearchGW((MqttsSearchGW) receivedMsg);
-        break;
-
-      case MqttsMessage.GWINFO:
-        System.out.println(("gw info"));
-        //handleMqttsGWInfo((MqttsGWInfo) receivedMsg);
-        break;
-
-      case MqttsMessage.CONNECT:
-        //we will never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN, "CONNECT received and ignored!!!");
-        break;
-
-      case MqttsMessage.CONNACK:
-        handleMqttsConnack((MqttsConnack) receivedMsg);
-        break;
-
-      case MqttsMessage.WILLTOPICREQ:
-        handleMqttsWillTopicReq((MqttsWillTopicReq) receivedMsg);
-        break;
-
-      case MqttsMessage.WILLTOPIC:
-        ClientLogger.log(ClientLogger.WARN, "WILLTOPIC received and ignored!!!");
-        break;
-
-      case MqttsMessage.WILLMSGREQ:
-        handleMqttsWillMsgReq((MqttsWillMsgReq) receivedMsg);
-        break;
-
-      case MqttsMessage.WILLMSG:
-        ClientLogger.log(ClientLogger.WARN, "WILLMSG received and ignored!!!");
-        break;
-
-      case MqttsMessage.REGISTER:
-        handleMqttsRegister((MqttsRegister) receivedMsg);
-        break;
-
-      case MqttsMessage.REGACK:
-        handleMqttsRegack((MqttsRegack) receivedMsg);
-        break;
-
-      case MqttsMessage.PUBLISH:
-        handleMqttsPublish((MqttsPublish) receivedMsg);
-        break;
-
-      case MqttsMessage.PUBACK:
-        handleMqttsPuback((MqttsPuback) receivedMsg);
-        break;
-
-      case MqttsMessage.PUBCOMP:
-        handleMqttsPubComp((MqttsPubComp) receivedMsg);
-        break;
-
-      case MqttsMessage.PUBREC:
-        handleMqttsPubRec((MqttsPubRec) receivedMsg);
-        break;
-
-      case MqttsMessage.PUBREL:
-        handleMqttsPubRel((MqttsPubRel) receivedMsg);
-        break;
-
-      case MqttsMessage.SUBSCRIBE:
-        ClientLogger.log(ClientLogger.WARN, "SUBSCRIBE received and ignored!!!");
-        break;
-
-      case MqttsMessage.SUBACK:
-        handleMqttsSuback((MqttsSuback) receivedMsg);
-        break;
-
-      case MqttsMessage.UNSUBSCRIBE:
-        ClientLogger.log(ClientLogger.WARN, "UNSUBSCRIBE and ignored received !!!");
-        break;
-
-      case MqttsMessage.UNSUBACK:
-        handleMqttsUnsuback((MqttsUnsuback) receivedMsg);
-        break;
-
-      case MqttsMessage.PINGREQ:
-        handleMqttsPingReq((MqttsPingReq) receivedMsg);
-        break;
-
-      case MqttsMessage.PINGRESP:
-        handleMqttsPingResp((MqttsPingResp) receivedMsg);
-        break;
-
-      case MqttsMessage.DISCONNECT:
-        handleMqttsDisconnect((MqttsDisconnect) receivedMsg);
-        break;
-
-      case MqttsMessage.WILLTOPICUPD:
-        ClientLogger.log(ClientLogger.WARN, "WILLTOPICUPD received and ignored!!!");
-        break;
+    //short messages are handled through a view of their encoding, as if received that way
+    if (MqttsRegistry.isFlyweight(receivedMsg.getMsgType())) {
+      handleMqttsFrame(toFrame(receivedMsg));
+    } else if (!registry.dispatch(receivedMsg)) {
+      ClientLogger.log(ClientLogger.WARN, "MQTT-S message of unknown type \""
+          + receivedMsg.getMsgType() + "\" received and ignored!!!");
+    }
+  }
 
-      case MqttsMessage.WILLTOPICRESP:
-        handleMqttsWillTopicResp((MqttsWillTopicResp) receivedMsg);
-        break;
 
-      case MqttsMessage.WILLMSGUPD:
-        ClientLogger.log(ClientLogger.WARN, "WILLMSGUPD received and ignored!!!");
-        break;
+  /**
+   * Handles a short message read through a flyweight view, without a message object. Messages
+   * of these types are normally received this way, see
+   * {@link org.eclipse.paho.mqttsn.udpclient.transport.FrameDecoder}.
+   */
+  protected void handleMqttsFrame(MqttsFrame receivedMsg) {
+    if (!registry.dispatch(receivedMsg)) {
+      ClientLogger.log(ClientLogger.WARN, "MQTT-S message of unknown type \""
+          + receivedMsg.msgType() + "\" received and ignored!!!");
+    }
+  }
 
-      case MqttsMessage.WILLMSGRESP:
-        handleMqttsWillMsgResp((MqttsWillMsgResp) receivedMsg);
-        break;
+  /**
+   * The handlers of the received message types; types without a handler are logged and ignored.
+   */
+  private MqttsRegistry createRegistry() {
+    MqttsRegistry r = new MqttsRegistry();
+    r.setMessageHandler(MqttsMessage.ADVERTISE, msg ->
+        ClientLogger.log(ClientLogger.INFO, "ADVERTISE message"));
+    r.setMessageHandler(MqttsMessage.SEARCHGW, msg ->
+        ClientLogger.log(ClientLogger.INFO, "SEARCHGW message"));
+    r.setMessageHandler(MqttsMessage.GWINFO, msg ->
+        ClientLogger.log(ClientLogger.INFO, "GWINFO message"));
+    r.setMessageHandler(MqttsMessage.REGISTER, msg -> handleMqttsRegister((MqttsRegister) msg));
+    r.setMessageHandler(MqttsMessage.PUBLISH, msg -> handleMqttsPublish((MqttsPublish) msg));
+
+    r.setFrameHandler(MqttsMessage.CONNACK, this::handleMqttsConnack);
+    r.setFrameHandler(MqttsMessage.WILLTOPICREQ, this::handleMqttsWillTopicReq);
+    r.setFrameHandler(MqttsMessage.WILLMSGREQ, this::handleMqttsWillMsgReq);
+    r.setFrameHandler(MqttsMessage.REGACK, this::handleMqttsRegack);
+    r.setFrameHandler(MqttsMessage.PUBACK, this::handleMqttsPuback);
+    r.setFrameHandler(MqttsMessage.PUBCOMP, this::handleMqttsPubComp);
+    r.setFrameHandler(MqttsMessage.PUBREC, this::handleMqttsPubRec);
+    r.setFrameHandler(MqttsMessage.PUBREL, this::handleMqttsPubRel);
+    r.setFrameHandler(MqttsMessage.SUBACK, this::handleMqttsSuback);
+    r.setFrameHandler(MqttsMessage.UNSUBACK, this::handleMqttsUnsuback);
+    r.setFrameHandler(MqttsMessage.PINGREQ, this::handleMqttsPingReq);
+    r.setFrameHandler(MqttsMessage.PINGRESP, this::handleMqttsPingResp);
+    r.setFrameHandler(MqttsMessage.DISCONNECT, this::handleMqttsDisconnect);
+    r.setFrameHandler(MqttsMessage.WILLTOPICRESP, this::handleMqttsWillTopicResp);
+    r.setFrameHandler(MqttsMessage.WILLMSGRESP, this::handleMqttsWillMsgResp);
+    return r;
+  }
 
-      default:
-        ClientLogger.log(ClientLogger.WARN, "MQTT-S message of unknown type \""
-            + receivedMsg.getMsgType() + "\" received and ignored!!!");
-        break;
-    }
+  /**
+   * @return a view of the message, only valid until the next call
+   */
+  private MqttsFrame toFrame(MqttsMessage msg) {
+    int length = msg.encodedLength();
+    ByteBuffer buffer = length <= frameBuffer.capacity() ? frameBuffer : ByteBuffer.allocate(length);
+    buffer.clear();
+    msg.encodeTo(buffer);
+    return frame.wrap(buffer, 0);
   }
 
 
-  private void handleMqttsWillTopicResp(MqttsWillTopicResp receivedMsg) {
+  private void handleMqttsWillTopicResp(MqttsFrame receivedMsg) {
     // TODO Auto-generated method stub
 
   }
 
-  private void handleMqttsWillMsgResp(MqttsWillMsgResp receivedMsg) {
+  private void handleMqttsWillMsgResp(MqttsFrame receivedMsg) {
     // TODO Auto-generated method stub
 
   }
 
-  private void ack_rx() {
-    timer.unregister(ControlMessage.ACK);
-    clState = ClientState.READY;
+  /**
+   * Called for every acknowledgement received: the client is ready again once it waits for no
+   * other acknowledgement. The gateway answers, so the missed ACKs are counted from zero again.
+   */
+  private void acked() {
+    ackMissedCounter = 0;
+    readyIfNothingOutstanding();
     if (lostGw) {
       callback.connected();
       lostGw = false;
@@ -680,14 +751,13 @@ public class MqttsClient implements Runnable {
   }
 
 
-  private void handleMqttsDisconnect(MqttsDisconnect receivedMsg) {
+  private void handleMqttsDisconnect(MqttsFrame receivedMsg) {
     if (clState == ClientState.SLEEP && waitingDisconnectACK) {
       waitingDisconnectACK = false;
       ClientLogger.log(ClientLogger.INFO, "Disconnect is ACKING client state, ignoring");
       return;
     }
-    ClientLogger.log(ClientLogger.INFO, "DISCONNECT received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+    logMessage("DISCONNECT received: ", receivedMsg);
 
     timer.unregister(ControlMessage.ACK);
     timer.unregister(ControlMessage.KEEP_ALIVE);
@@ -698,153 +768,130 @@ public class MqttsClient implements Runnable {
     //it is better to inform app so that app can do a restart
     //e.g. reissue register and subscriptions
     clState = ClientState.WAITING_CONNECT;
+    clearInflight();
     ClientLogger.log(ClientLogger.INFO, "Disconnected, waiting for connect");
     callback.disconnected(MqttsCallback.MQTTS_OK);
   }
 
 
-  private void handleMqttsPingResp(MqttsPingResp receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "PINGRESP received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsPingResp(MqttsFrame receivedMsg) {
+    logMessage("PINGRESP received: ", receivedMsg);
 
     switch (this.clState) {
       case WAITING_ACK:
-        ack_rx();
+        pingOutstanding = false;
+        acked();
         break;
       default:
         break;
     }
   }
 
-  private void handleMqttsPingReq(MqttsPingReq receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "PINGREQ received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsPingReq(MqttsFrame receivedMsg) {
+    logMessage("PINGREQ received: ", receivedMsg);
     mqtts_pingresp();
   }
 
-  private void handleMqttsUnsuback(MqttsUnsuback receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "UNSUBACK received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsUnsuback(MqttsFrame receivedMsg) {
+    logMessage("UNSUBACK received: ", receivedMsg);
 
-    switch (this.clState) {
-      case WAITING_ACK:
-        if (receivedMsg.getMsgId() != ((MqttsUnsubscribe) this.message).getMsgId()) {
-          ClientLogger.log(ClientLogger.WARN, "MsgId (\"" +
-              receivedMsg.getMsgId()
-              + "\") of the received Mqtts UNSUBACK message does not match the MsgId (\"" +
-              ((MqttsUnsubscribe) this.message).getMsgId() +
-              "\") of the stored Mqtts UNSUBSCRIBE message. The message cannot be processed.");
-          return;
-        }
-
-        ack_rx();
-        callback.unsubackReceived();
-        break;
-
-      default:
-        break;
+    if (removeInflight(receivedMsg, MqttsMessage.UNSUBSCRIBE, "UNSUBACK",
+        "UNSUBSCRIBE") != null) {
+      callback.unsubackReceived();
     }
   }
 
-  private void handleMqttsSuback(MqttsSuback receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "SUBACK received: " +
-        Utils.hexString(receivedMsg.toBytes()));
-
-    switch (this.clState) {
-      case WAITING_ACK:
-        if (receivedMsg.getMsgId() != ((MqttsSubscribe) this.message).getMsgId()) {
-          ClientLogger.log(ClientLogger.WARN, "MsgId (\"" + receivedMsg.getMsgId()
-              + "\") of the received Mqtts SUBACK message does not match the MsgId (\""
-              + ((MqttsSubscribe) this.message).getMsgId()
-              + "\") of the stored Mqtts SUBSCRIBE message. The message cannot be processed.");
-          return;
-        }
+  private void handleMqttsSuback(MqttsFrame receivedMsg) {
+    logMessage("SUBACK received: ", receivedMsg);
 
-        ack_rx();
-        callback.subackReceived(receivedMsg.getGrantedQoS(), receivedMsg.getTopicId(),
-            receivedMsg.getReturnCode());
-
-        break;
-
-      default:
-        break;
+    if (removeInflight(receivedMsg, MqttsMessage.SUBSCRIBE, "SUBACK", "SUBSCRIBE") != null) {
+      callback.subackReceived(receivedMsg.qos(), receivedMsg.topicId(),
+          receivedMsg.returnCode());
     }
   }
 
-  private void handleMqttsPubRel(MqttsPubRel receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "PUBREL received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsPubRel(MqttsFrame receivedMsg) {
+    logMessage("PUBREL received: ", receivedMsg);
     // TODO procedure for QoS 2 not yet checked
 
   }
 
-  private void handleMqttsPubRec(MqttsPubRec receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "PUBREC received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsPubRec(MqttsFrame receivedMsg) {
+    logMessage("PUBREC received: ", receivedMsg);
 
     // TODO procedure for QoS 2 not yet checked
 
-    switch (this.clState) {
-      case WAITING_ACK:
-        timer.unregister(ControlMessage.ACK);
-        mqtts_pubrel(receivedMsg.getMsgId());
-        break;
-      default:
-        break;
+    //the PUBLISH (or, for a repeated PUBREC, its PUBREL) is replaced by the PUBREL
+    MqttsMessage sent = inflight.get(receivedMsg.msgId());
+    if (sent == null || (sent.getMsgType() != MqttsMessage.PUBLISH
+        && sent.getMsgType() != MqttsMessage.PUBREL)) {
+      ClientLogger.log(ClientLogger.WARN, "MsgId (\"" + receivedMsg.msgId()
+          + "\") of the received Mqtts PUBREC message does not match the MsgId of any "
+          + "outstanding Mqtts PUBLISH message. The message cannot be processed.");
+      return;
     }
+    mqtts_pubrel(receivedMsg.msgId());
   }
 
-  private void handleMqttsPubComp(MqttsPubComp receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "PUBCOMP received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsPubComp(MqttsFrame receivedMsg) {
+    logMessage("PUBCOMP received: ", receivedMsg);
 
     // TODO procedure for QoS 2 not yet checked
 
-    switch (this.clState) {
-      case WAITING_ACK:
-        ack_rx();
-        callback.pubCompReceived();
-        break;
-      default:
-        break;
+    if (removeInflight(receivedMsg, MqttsMessage.PUBREL, "PUBCOMP", "PUBREL") != null) {
+      callback.pubCompReceived();
     }
-
   }
 
 
-  private void handleMqttsPuback(MqttsPuback receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "PUBACK received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsPuback(MqttsFrame receivedMsg) {
+    logMessage("PUBACK received: ", receivedMsg);
 
-    switch (this.clState) {
-      case WAITING_ACK:
-        if (receivedMsg.getMsgId() != ((MqttsPublish) this.message).getMsgId()) {
-          ClientLogger.log(ClientLogger.WARN, "MsgId (\"" + receivedMsg.getMsgId()
-              + "\") of the received Mqtts PUBACK message does not match the MsgId (\""
-              + ((MqttsPublish) this.message).getMsgId()
-              + "\") of the stored Mqtts PUBLISH message. The message cannot be processed.");
-          return;
-        }
-
-        ack_rx();
-        callback.pubAckReceived(receivedMsg.getTopicId(), receivedMsg.getReturnCode());
+    //a PUBACK may also reject a QoS 0 PUBLISH, which is not in flight
+    if (!(inflight.get(receivedMsg.msgId()) instanceof MqttsPublish)
+        && receivedMsg.returnCode() != MqttsMessage.RETURN_CODE_ACCEPTED) {
+      callback.pubAckReceived(receivedMsg.topicId(), receivedMsg.returnCode());
+      return;
+    }
 
-        break;
+    MqttsMessage sent = removeInflight(receivedMsg, MqttsMessage.PUBLISH, "PUBACK", "PUBLISH");
+    if (sent != null) {
+      callback.pubAckReceived(receivedMsg.topicId(), receivedMsg.returnCode());
+    }
+  }
 
-      default:
-        if (receivedMsg.getReturnCode() != MqttsMessage.RETURN_CODE_ACCEPTED) {
-          callback.pubAckReceived(receivedMsg.getTopicId(), receivedMsg.getReturnCode());
-        }
-        break;
+  /**
+   * Removes the request acknowledged by this message from the in-flight window.
+   *
+   * @param requestType the type of request the message acknowledges
+   * @return the request, null if none of that type is in flight with the MsgId of the message
+   */
+  private MqttsMessage removeInflight(MqttsFrame ack, int requestType, String ackName,
+      String requestName) {
+    int msgId = ack.msgId();
+    MqttsMessage sent = inflight.get(msgId);
+    if (sent == null || sent.getMsgType() != requestType) {
+      ClientLogger.log(ClientLogger.WARN, "MsgId (\"" + msgId + "\") of the received Mqtts "
+          + ackName + " message does not match the MsgId of any outstanding Mqtts " + requestName
+          + " message. The message cannot be processed.");
+      return null;
     }
+    inflight.remove(msgId);
+    msgIds.release(msgId);
+    acked();
+    return sent;
   }
 
   private void handleMqttsPublish(MqttsPublish receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "PUBLISH received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+    logMessage("PUBLISH received: ", receivedMsg);
 
     int returnCode = -1;
-    if (receivedMsg.getTopicIdType() == MqttsMessage.PREDIFINED_TOPIC_ID) {
+    if (callback instanceof MqttsPayloadCallback) {
+      //the payload is read in place, without copying it into an array
+      returnCode = ((MqttsPayloadCallback) callback).publishArrived(receivedMsg.isRetain(),
+          receivedMsg.getQos(), receivedMsg.getTopicIdType(), receivedMsg.getTopicId(),
+          receivedMsg.getPayload());
+    } else if (receivedMsg.getTopicIdType() == MqttsMessage.PREDIFINED_TOPIC_ID) {
       if (callback instanceof MqttsCallbackPreDefinedTopicId) {
         MqttsCallbackPreDefinedTopicId ecb = (MqttsCallbackPreDefinedTopicId) callback;
         returnCode = ecb
@@ -869,39 +916,17 @@ public class MqttsClient implements Runnable {
   }
 
 
-  private void handleMqttsRegack(MqttsRegack receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "REGACK received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsRegack(MqttsFrame receivedMsg) {
+    logMessage("REGACK received: ", receivedMsg);
 
-    switch (this.clState) {
-      case WAITING_ACK:
-
-        if (!(this.message instanceof MqttsRegister)) {
-          ClientLogger
-              .log(ClientLogger.ERROR, "Unexpected message received: " + this.message.getMsgType());
-          break;
-        }
-
-        if (receivedMsg.getMsgId() != ((MqttsRegister) this.message).getMsgId()) {
-          ClientLogger.log(ClientLogger.WARN, "MsgId (\"" + receivedMsg.getMsgId()
-              + "\") of the received Mqtts REGACK message does not match the MsgId (\""
-              + ((MqttsRegister) this.message).getMsgId()
-              + "\") of the stored Mqtts REGISTER message. The message cannot be processed.");
-          return;
-        }
-
-        ack_rx();
-        callback.regAckReceived(receivedMsg.getTopicId(), receivedMsg.getReturnCode());
-        break;
-      default:
-        break;
+    if (removeInflight(receivedMsg, MqttsMessage.REGISTER, "REGACK", "REGISTER") != null) {
+      callback.regAckReceived(receivedMsg.topicId(), receivedMsg.returnCode());
     }
   }
 
 
   private void handleMqttsRegister(MqttsRegister receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "REGISTER received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+    logMessage("REGISTER received: ", receivedMsg);
 
     mqtts_regack(receivedMsg.getTopicId(), receivedMsg.getMsgId(),
         MqttsMessage.RETURN_CODE_ACCEPTED);
@@ -909,37 +934,42 @@ public class MqttsClient implements Runnable {
   }
 
 
-  private void handleMqttsWillMsgReq(MqttsWillMsgReq receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "WILLMSGREQ received " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsWillMsgReq(MqttsFrame receivedMsg) {
+    logMessage("WILLMSGREQ received ", receivedMsg);
     timer.unregister(ControlMessage.ACK);
     mqtts_willmsg();
   }
 
-  private void handleMqttsWillTopicReq(MqttsWillTopicReq receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "WILLTOPCREQ received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsWillTopicReq(MqttsFrame receivedMsg) {
+    logMessage("WILLTOPCREQ received: ", receivedMsg);
     timer.unregister(ControlMessage.ACK);
     mqtts_willtopic();
   }
 
 
-  private void handleMqttsConnack(MqttsConnack receivedMsg) {
-    ClientLogger.log(ClientLogger.INFO, "CONNACK received: " +
-        Utils.hexString(receivedMsg.toBytes()));
+  private void handleMqttsConnack(MqttsFrame receivedMsg) {
+    logMessage("CONNACK received: ", receivedMsg);
 
     switch (this.clState) {
       case CONNECTING_TO_GW:
-        if (receivedMsg.getReturnCode() == MqttsMessage.RETURN_CODE_ACCEPTED) {
+        if (receivedMsg.returnCode() == MqttsMessage.RETURN_CODE_ACCEPTED) {
+          this.message = null;
+          pingOutstanding = false;
           timer.unregister(ControlMessage.ACK);
           clState = ClientState.READY;
+          //requests still in flight from before a sleep are retransmitted on the ACK timer
+          if (!inflight.isEmpty()) {
+            timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
+            clState = ClientState.WAITING_ACK;
+          }
           callback.connected();
           lostGw = false;
         } else {
           clState = ClientState.WAITING_CONNECT;
+          clearInflight();
           timer.unregister(ControlMessage.ACK);
           timer.unregister(ControlMessage.KEEP_ALIVE);
-          callback.disconnected(receivedMsg.getReturnCode());
+          callback.disconnected(receivedMsg.returnCode());
         }
         break;
       default:
@@ -949,8 +979,25 @@ public class MqttsClient implements Runnable {
   }
 
 
+  /**
+   * @return a MsgId no request in flight has, 0 (and logged) if all are in use
+   */
   private int getNewMsgId() {
-    return msgId++;
+    int id = msgIds.allocate();
+    if (id == 0) {
+      ClientLogger.log(ClientLogger.WARN, "All " + MsgIdAllocator.MAX_MSG_ID
+          + " MsgIds are in use by requests in flight, no new request can be sent");
+    }
+    return id;
+  }
+
+  /**
+   * Gives up the requests in flight and the PINGREQ, when the client is disconnected.
+   */
+  private void clearInflight() {
+    pingOutstanding = false;
+    inflight.clear();
+    msgIds.clear();
   }
 
 
@@ -959,9 +1006,7 @@ public class MqttsClient implements Runnable {
    */
 
   private void mqtts_puback(int topicId, int msgId, int returnCode) {
-    //construct a Mqtts PUBACK message
-    MqttsPuback puback = new MqttsPuback();
-
+    //fill in the Mqtts PUBACK message
     puback.setTopicId(topicId);
     puback.setMsgId(msgId);
     puback.setReturnCode(returnCode);
@@ -970,10 +1015,11 @@ public class MqttsClient implements Runnable {
     timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
 
     //send the Mqtts PUBACK message to the gateway
-    ClientLogger.log(ClientLogger.INFO,
-        "Sending PUBACK message with \"TopicId\" = \"" + topicId + "\" to the gateway:" + Utils
-            .hexString(puback.toBytes()));
-    udpInterface.sendMsg(puback);
+    if (ClientLogger.isLoggable(ClientLogger.INFO)) {
+      logMessage("Sending PUBACK message with \"TopicId\" = \"" + topicId + "\" to the gateway:",
+          puback);
+    }
+    transport.sendMsg(puback);
   }
 
   /**
@@ -981,8 +1027,7 @@ public class MqttsClient implements Runnable {
    */
   private void mqtts_regack(int topicId, int msgId, int returnCode) {
 
-    //construct a Mqtts REGACK message
-    MqttsRegack regack = new MqttsRegack();
+    //fill in the Mqtts REGACK message
     regack.setTopicId(topicId);
     regack.setMsgId(msgId);
     regack.setReturnCode(returnCode);
@@ -991,10 +1036,11 @@ public class MqttsClient implements Runnable {
     timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
 
     //send the Mqtts REGACK message to the gateway
-    ClientLogger.log(ClientLogger.INFO,
-        "Sending REGACK message with \"TopicId\" = \"" + topicId + "\" to the gateway :" + Utils
-            .hexString(regack.toBytes()));
-    udpInterface.sendMsg(regack);
+    if (ClientLogger.isLoggable(ClientLogger.INFO)) {
+      logMessage("Sending REGACK message with \"TopicId\" = \"" + topicId + "\" to the gateway :",
+          regack);
+    }
+    transport.sendMsg(regack);
   }
 
 
@@ -1007,19 +1053,13 @@ public class MqttsClient implements Runnable {
     msg.setMsgId(msgId);
 
     //send the Mqtts PUBREL message
-    ClientLogger.log(ClientLogger.INFO,
-        "Sending PUBREL message to the gateway: " + Utils.hexString(msg.toBytes()));
+    logMessage("Sending PUBREL message to the gateway: ", msg);
 
-    timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-    timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-    clState = ClientState.WAITING_ACK;
+    /* we are waiting for PUBCOMP, the PUBREL takes the place of the PUBLISH in the window
+     * and is retransmitted like it */
+    track(msgId, msg);
 
-    /* we are waiting for PUBCOMP */
-    /* TODO What happens if we do not rx a PUBCOMP ? Retransmit PUBREL? */
-    /* backup the message for the ack*/
-    mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
-
-    udpInterface.sendMsg(msg);
+    transport.sendMsg(msg);
   }
 
 
@@ -1027,34 +1067,32 @@ public class MqttsClient implements Runnable {
    * send an PINGREQ message
    */
   private void mqtts_pingreq() {
-    //construct a Mqtts PINGREQ message
-    MqttsPingReq msg = new MqttsPingReq();
+    //the Mqtts PINGREQ message, shared and pre-encoded
+    MqttsMessage msg = MqttsEncodedMessage.PINGREQ_FRAME;
 
-    mqtts_backup(MQTTS_BACKUP_MESSAGE, msg);
+    pingOutstanding = true;
     timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
     timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
 
     //send the Mqtts PINGREQ message to the client
-    ClientLogger.log(ClientLogger.INFO,
-        "Sending Mqtts PINGREQ message to the gateway: " + Utils.hexString(msg.toBytes()));
+    logMessage("Sending Mqtts PINGREQ message to the gateway: ", msg);
     clState = ClientState.WAITING_ACK;
-    udpInterface.sendMsg(msg);
+    transport.sendMsg(msg);
   }
 
   /**
    * send an PINGRESP message
    */
   private void mqtts_pingresp() {
-    //construct a Mqtts PINGREQ message
-    MqttsPingResp msg = new MqttsPingResp();
+    //the Mqtts PINGRESP message, shared and pre-encoded
+    MqttsMessage msg = MqttsEncodedMessage.PINGRESP_FRAME;
 
     timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
 
     //send the Mqtts PINGRESP message to the client
-    ClientLogger.log(ClientLogger.INFO,
-        "Sending PINGRESP to the gateway: " + Utils.hexString(msg.toBytes()));
+    logMessage("Sending PINGRESP to the gateway: ", msg);
     ;
-    udpInterface.sendMsg(msg);
+    transport.sendMsg(msg);
 
   }
 
@@ -1074,9 +1112,8 @@ public class MqttsClient implements Runnable {
     /* star timers */
     timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
     timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-    ClientLogger.log(ClientLogger.INFO,
-        "Sending WILLMSG to the gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Sending WILLMSG to the gateway: ", msg);
+    transport.sendMsg(msg);
 
   }
 
@@ -1096,9 +1133,8 @@ public class MqttsClient implements Runnable {
     /* start timers */
     timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
     timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
-    ClientLogger.log(ClientLogger.INFO,
-        "Sending WILLTOPIC to the gateway: " + Utils.hexString(msg.toBytes()));
-    udpInterface.sendMsg(msg);
+    logMessage("Sending WILLTOPIC to the gateway: ", msg);
+    transport.sendMsg(msg);
   }
 
   /**
@@ -1122,9 +1158,8 @@ public class MqttsClient implements Runnable {
     timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
     timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
 
-    udpInterface.sendMsg(msg);
-    ClientLogger
-        .log(ClientLogger.INFO, "CONNECT sent to gateway: " + Utils.hexString(msg.toBytes()));
+    transport.sendMsg(msg);
+    logMessage("CONNECT sent to gateway: ", msg);
 
     callback.connectSent();
 
@@ -1142,29 +1177,55 @@ public class MqttsClient implements Runnable {
 
 
   private void readMsg() {
-    //read the next available Message from queue
+    //read all available Messages from queue
 
-    Message msg = null;
+    int count = 0;
     try {
-      msg = (Message) queue.get();
+      count = queue.drainTo(batch);
     } catch (InterruptedException e) {
       e.printStackTrace();
     }
 
-    if (msg == null) {
-      return;
+    for (int i = 0; i < count; i++) {
+      Message msg = (Message) batch[i];
+      batch[i] = null;
+      if (running) {
+        handleMessage(msg);
+      } else {
+        msg.releaseBuffer();
+      }
     }
+  }
+
+  private void handleMessage(Message msg) {
     //get the type of the message that "internal" message carries
     int type = msg.getType();
     switch (type) {
       case Message.MQTTS_MSG:
         ClientLogger.log(ClientLogger.INFO, "Processing an mqtts message ...");
-        handleMqttsMessage(msg.getMqttsMessage());
+        try {
+          handleMqttsMessage(msg.getMqttsMessage());
+        } finally {
+          msg.releaseBuffer();
+        }
+        break;
+
+      case Message.MQTTS_FRAME:
+        ClientLogger.log(ClientLogger.INFO, "Processing an mqtts message ...");
+        try {
+          handleMqttsFrame(frame.wrap(msg.getFrame(), 0));
+        } finally {
+          msg.recycle();
+        }
         break;
 
       case Message.CONTROL_MSG:
         ClientLogger.log(ClientLogger.INFO, "Processing a control message ...");
-        handleControlMessage(msg.getControlMessage());
+        try {
+          handleControlMessage(msg.getControlMessage());
+        } finally {
+          msg.recycle();
+        }
         break;
 
       default:
@@ -1180,9 +1241,21 @@ public class MqttsClient implements Runnable {
     switch (controlMessage.getMsgType()) {
       case ControlMessage.ACK:
         ClientLogger.log(ClientLogger.INFO, "ACK timeout");
-        ackMissedCounter++;
+        //the backed up message and the PINGREQ count the timeouts, each request in flight its
+        //own retries
+        if (this.message != null || pingOutstanding) {
+          ackMissedCounter++;
+        }
+        long now = System.nanoTime();
+        int expired = inflight.expire(
+            now - clientParms.getWaitingTime() * 1000000000L + ACK_TIMER_SLACK_NANOS, now,
+            resend, resendRetries);
+        boolean retriesExceeded = ackMissedCounter > clientParms.getMaxRetries();
+        for (int i = 0; i < expired; i++) {
+          retriesExceeded |= resendRetries[i] > clientParms.getMaxRetries();
+        }
 
-        if (ackMissedCounter > clientParms.getMaxRetries()) {
+        if (retriesExceeded) {
 
           //We log a warnning and inform app
           ClientLogger.log(ClientLogger.WARN, "Too many ACKs missed, lost gw ...");
@@ -1190,17 +1263,46 @@ public class MqttsClient implements Runnable {
 
           if (autoReconnect) {
             mqtts_backup(MQTTS_BACKUP_SEND_MESSAGE, null);
+            resendInflight(expired);
+            expired = 0;
+            inflight.resetRetries();
             ackMissedCounter = 0;
             ClientLogger.log(ClientLogger.WARN, "will try re-connecting ...");
           } else {
             timer.unregister(ControlMessage.ACK);
             timer.unregister(ControlMessage.KEEP_ALIVE);
             clState = ClientState.WAITING_CONNECT;
+            clearInflight();
             ClientLogger.log(ClientLogger.WARN, "Waiting for new connect from application ...");
           }
 
         } else {
           mqtts_backup(MQTTS_BACKUP_SEND_MESSAGE, null);
+          resendInflight(expired);
+          expired = 0;
+        }
+        for (int i = 0; i < expired; i++) {
+          resend[i] = null;
+        }
+        break;
+
+      case ControlMessage.GW_UNREACHABLE:
+        if (clState == ClientState.NOT_ACTIVE || clState == ClientState.WAITING_CONNECT) {
+          break;
+        }
+        //no need to wait for the ACK timeouts, the gateway is known to be down
+        ClientLogger.log(ClientLogger.WARN, "Gateway unreachable, lost gw ...");
+        callback.disconnected(MqttsCallback.MQTTS_LOST_GATEWAY);
+        ackMissedCounter = 0;
+        if (autoReconnect) {
+          //the ACK and keep alive timers keep re-trying
+          ClientLogger.log(ClientLogger.WARN, "will try re-connecting ...");
+        } else {
+          timer.unregister(ControlMessage.ACK);
+          timer.unregister(ControlMessage.KEEP_ALIVE);
+          clState = ClientState.WAITING_CONNECT;
+          clearInflight();
+          ClientLogger.log(ClientLogger.WARN, "Waiting for new connect from application ...");
         }
         break;
 
@@ -1226,12 +1328,17 @@ public class MqttsClient implements Runnable {
         ClientLogger.log(ClientLogger.INFO, "Message backup for retransmission");
         break;
 
-      case MQTTS_BACKUP_SEND_MESSAGE: /* resend message stored in backup */
+      case MQTTS_BACKUP_SEND_MESSAGE: /* resend message stored in backup, and the PINGREQ */
         timer.register(ControlMessage.KEEP_ALIVE, clientParms.getKeepAlivePeriod());
         timer.register(ControlMessage.ACK, clientParms.getWaitingTime());
-        ClientLogger.log(ClientLogger.INFO,
-            "Backup message resent:" + Utils.hexString(this.message.toBytes()));
-        udpInterface.sendMsg(this.message);
+        if (this.message != null) {
+          logMessage("Backup message resent:", this.message);
+          transport.sendMsg(this.message);
+        }
+        if (pingOutstanding) {
+          logMessage("PINGREQ resent:", MqttsEncodedMessage.PINGREQ_FRAME);
+          transport.sendMsg(MqttsEncodedMessage.PINGREQ_FRAME);
+        }
 
         break;
 
@@ -1241,11 +1348,46 @@ public class MqttsClient implements Runnable {
     return;
   }
 
+  /**
+   * Sends the first count requests of the resend array again, PUBLISH and SUBSCRIBE with the
+   * DUP flag set.
+   */
+  private void resendInflight(int count) {
+    for (int i = 0; i < count; i++) {
+      MqttsMessage msg = resend[i];
+      resend[i] = null;
+      if (msg instanceof MqttsPublish) {
+        ((MqttsPublish) msg).setDup(true);
+      } else if (msg instanceof MqttsSubscribe) {
+        ((MqttsSubscribe) msg).setDup(true);
+      }
+      logMessage("In-flight message resent:", msg);
+      transport.sendMsg(msg);
+    }
+  }
+
   public String getClientid() {
     return clientid;
   }
 
 
+  /**
+   * Logs the message followed by its wire form. The message is only encoded when INFO is
+   * actually logged.
+   */
+  private static void logMessage(String text, MqttsMessage msg) {
+    if (ClientLogger.isLoggable(ClientLogger.INFO)) {
+      ClientLogger.log(ClientLogger.INFO, text + Utils.hexString(msg.toBytes()));
+    }
+  }
+
+  private static void logMessage(String text, MqttsFrame msg) {
+    if (ClientLogger.isLoggable(ClientLogger.INFO)) {
+      ClientLogger.log(ClientLogger.INFO, text
+          + Utils.hexString(Utils.SliceByteBuffer(msg.buffer(), msg.offset(), msg.length())));
+    }
+  }
+
   /********************************************************************************/
   private enum ClientState {
 
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A callback that receives PUBLISH payloads as read-only buffers instead of byte arrays. If
+ * the registered callback implements it, this method is called for every PUBLISH in place of
+ * {@link MqttsCallback#publishArrived(boolean, int, int, byte[])} and
+ * {@link MqttsCallbackPreDefinedTopicId#publishArrivedPreDefinedTopicId(boolean, int, int, byte[])}.
+ * <p>
+ * The remaining bytes of the buffer are the payload. With
+ * {@link org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters#setZeroCopyPayload(boolean)}
+ * the buffer is a view into the receive buffer, so the payload is never copied; it is only
+ * valid during the call and must be copied if it is needed afterwards.
+ */
+public interface MqttsPayloadCallback extends MqttsCallback {
+
+	/**
+	 * @param topicIdType NORMAL_TOPIC_ID, PREDIFINED_TOPIC_ID or SHORT_TOPIC_NAME
+	 * @return the return code of the PUBACK, as for
+	 * {@link MqttsCallback#publishArrived(boolean, int, int, byte[])}
+	 */
+	public int publishArrived(boolean retain, int QoS, int topicIdType, int topicId,
+			ByteBuffer payload);
+}
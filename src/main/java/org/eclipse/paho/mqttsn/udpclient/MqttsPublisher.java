@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublishTemplate;
+
+/**
+ * Publishes to one topic with a fixed QoS and retain flag, see
+ * {@link MqttsClient#preparePublish(int, int, int, boolean)}. The header of the PUBLISH
+ * messages is encoded once, so each publish only writes its length, MsgId and payload.
+ */
+public final class MqttsPublisher {
+
+  private final MqttsClient client;
+  private final MqttsPublishTemplate template;
+
+  MqttsPublisher(MqttsClient client, MqttsPublishTemplate template) {
+    this.client = client;
+    this.template = template;
+  }
+
+  /**
+   * Same as {@link MqttsClient#publish(int, int, byte[], int, boolean)} with the topic, QoS
+   * and retain flag of this publisher.
+   */
+  public boolean publish(byte[] message) {
+    return client.publish(template, message);
+  }
+
+  public int getTopicIdType() {
+    return template.getTopicIdType();
+  }
+
+  public int getTopicId() {
+    return template.getTopicId();
+  }
+
+  public int getQos() {
+    return template.getQos();
+  }
+
+  public boolean isRetain() {
+    return template.isRetain();
+  }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient;
+
+import java.util.Arrays;
+
+/**
+ * Hands out the MsgIds of the requests a client sends. The ids go round within 1..65535 and
+ * skip those still in use, which are kept in a bitmap of 8 KB, so a session can run for any
+ * number of requests without an id being truncated or used twice at once. Ids are allocated by
+ * the application threads and released by the client thread, so the methods are synchronized.
+ */
+final class MsgIdAllocator {
+
+  final static int MAX_MSG_ID = 0xFFFF;
+
+  //one bit per MsgId; bit 0 (MsgId 0, not a valid id) is always set
+  private final long[] inUse = new long[(MAX_MSG_ID + 1) / 64];
+  private int next = 1;
+  private int count;
+
+  MsgIdAllocator() {
+    inUse[0] = 1L;
+  }
+
+  /**
+   * @return the next MsgId not in use, 0 if all are in use
+   */
+  synchronized int allocate() {
+    if (count == MAX_MSG_ID) {
+      return 0;
+    }
+    int id = next;
+    while (true) {
+      int word = id >>> 6;
+      long free = ~inUse[word] & (-1L << (id & 63));
+      if (free != 0) {
+        id = (word << 6) + Long.numberOfTrailingZeros(free);
+        break;
+      }
+      id = (word + 1) << 6;
+      if (id > MAX_MSG_ID) {
+        id = 1;
+      }
+    }
+    inUse[id >>> 6] |= 1L << (id & 63);
+    count++;
+    next = id == MAX_MSG_ID ? 1 : id + 1;
+    return id;
+  }
+
+  /**
+   * Makes the MsgId available again, once the request it was allocated for is acknowledged.
+   */
+  synchronized void release(int id) {
+    if (id < 1 || id > MAX_MSG_ID) {
+      return;
+    }
+    long bit = 1L << (id & 63);
+    if ((inUse[id >>> 6] & bit) != 0) {
+      inUse[id >>> 6] &= ~bit;
+      count--;
+    }
+  }
+
+  synchronized boolean isInUse(int id) {
+    return id >= 1 && id <= MAX_MSG_ID && (inUse[id >>> 6] & (1L << (id & 63))) != 0;
+  }
+
+  /**
+   * @return the number of MsgIds in use
+   */
+  synchronized int size() {
+    return count;
+  }
+
+  /**
+   * Releases all MsgIds. The ids keep going round from where they were, so the next ones are
+   * not those of the requests just given up.
+   */
+  synchronized void clear() {
+    Arrays.fill(inUse, 0L);
+    inUse[0] = 1L;
+    count = 0;
+  }
+}
@@ -17,13 +17,22 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages;
 
+import java.nio.ByteBuffer;
+
 import org.eclipse.paho.mqttsn.udpclient.messages.control.ControlMessage;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.BufferPool;
 
 
 public class Message {	
 	public static final int MQTTS_MSG = 1;
 	public static final int CONTROL_MSG = 2;
+	//a short mqtts message carried as a copy of its bytes, read through an MqttsFrame
+	public static final int MQTTS_FRAME = 3;
+
+	//the size of the copy of an MQTTS_FRAME, enough for the short messages that only carry
+	//numbers; a longer one (a PINGREQ with a long client id) gets a larger copy
+	public static final int MAX_FRAME_LENGTH = 32;
 	
 	
 	private int type;
@@ -31,6 +40,14 @@ public class Message {
 	private MqttsMessage mqttsMessage = null;
 	private ControlMessage controlMessage = null;
 	
+	//receive buffer the mqtts message still refers to, returned to its pool once handled
+	private ByteBuffer buffer = null;
+	private BufferPool bufferPool = null;
+
+	//the bytes of an MQTTS_FRAME, and the pool the message returns to once handled
+	private ByteBuffer frame = null;
+	private MessagePool pool = null;
+	
 
 	public Message() {}
 
@@ -60,4 +77,54 @@ public class Message {
 		this.controlMessage = controlMessage;
 	}
 
+	public void setBuffer(ByteBuffer buffer, BufferPool bufferPool) {
+		this.buffer = buffer;
+		this.bufferPool = bufferPool;
+	}
+
+	public ByteBuffer getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Copies an mqtts message into the message. The copy is reused by a pooled message.
+	 */
+	public void setFrame(ByteBuffer data, int index, int length) {
+		if (frame == null || frame.capacity() < length) {
+			frame = ByteBuffer.allocate(Math.max(length, MAX_FRAME_LENGTH));
+		}
+		frame.clear();
+		for (int i = 0; i < length; i++) {
+			frame.put(data.get(index + i));
+		}
+		frame.flip();
+	}
+
+	void setPool(MessagePool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Gives the receive buffer back to its pool and the message itself to its
+	 * {@link MessagePool}, if it came from one. Afterwards it must not be used anymore.
+	 */
+	public void recycle() {
+		releaseBuffer();
+		if (pool != null) {
+			pool.release(this);
+		}
+	}
+
+	/**
+	 * Gives the receive buffer back to its pool. Must be called once the
+	 * mqtts message has been handled, afterwards it must not be used anymore.
+	 */
+	public void releaseBuffer() {
+		if (buffer != null) {
+			bufferPool.release(buffer);
+			buffer = null;
+			bufferPool = null;
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages;
+
+/**
+ * Reuses the {@link Message} objects that carry short mqtts messages from the reading thread to
+ * the client, so that frequent messages such as PUBACK or PINGRESP do not allocate. Messages
+ * are taken by the reading thread and returned by the client with {@link Message#recycle()}.
+ * If the pool is empty a new message is created; at most maxPooled messages are kept.
+ */
+public class MessagePool {
+
+	private final Message[] free;
+	private int count;
+
+	public MessagePool(int maxPooled) {
+		this.free = new Message[maxPooled];
+	}
+
+	public synchronized Message acquire() {
+		if (count > 0) {
+			Message msg = free[--count];
+			free[count] = null;
+			return msg;
+		}
+		Message msg = new Message();
+		msg.setPool(this);
+		return msg;
+	}
+
+	synchronized void release(Message msg) {
+		msg.setMqttsMessage(null);
+		msg.setControlMessage(null);
+		if (count < free.length) {
+			free[count++] = msg;
+		}
+	}
+}
@@ -24,6 +24,7 @@ public class ControlMessage {
 	public static final int KEEP_ALIVE 		= 2;
 	public static final int WAIT_SEARCHGW 	= 3;
 	public static final int WAIT_GWINFO	    = 4;
+	public static final int GW_UNREACHABLE	= 5;
 	
 	public ControlMessage(){}
 	
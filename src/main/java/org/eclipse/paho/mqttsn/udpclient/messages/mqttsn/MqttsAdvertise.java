@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts ADVERTISE message.
  * 
@@ -40,24 +42,38 @@ public class MqttsAdvertise extends MqttsMessage {
 	 * @param data: The buffer that contains the ADVERTISE message.
 	 */
 	public MqttsAdvertise(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsAdvertise constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts ADVERTISE message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the ADVERTISE message.
+	 */
+	public MqttsAdvertise(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.ADVERTISE;
-		gwId = (data[2] & 0xFF);
-		duration = ((data[3] & 0xFF) << 8) + (data[4] & 0xFF);
+		gwId = (data.get(pos + 2) & 0xFF);
+		duration = ((data.get(pos + 3) & 0xFF) << 8) + (data.get(pos + 4) & 0xFF);
+	}
+
+	/**
+	 * @return The length of the ADVERTISE message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 5;
 	}
 
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the ADVERTISE message as it should appear on the wire.
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the ADVERTISE message as it should appear on the wire.
 	 */
-	public byte[] toBytes() {
-		int length = 5;
-		byte[] data = new byte[length];
-		data[0] = (byte) length;
-		data[1] = (byte) msgType;
-		data[2] = (byte) gwId;
-		data[3] = (byte) ((duration >> 8) & 0xFF);
-		data[4] = (byte) (duration & 0xFF);
-		return data;
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 5);
+		buffer.put((byte) msgType);
+		buffer.put((byte) gwId);
+		buffer.putShort((short) duration);
 	}
 
 	public int getGwId() {
@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
 
 /**
@@ -42,21 +44,36 @@ public class MqttsConnack extends MqttsMessage {
 	 * (Don't needed in the GW)
 	 */
 	public MqttsConnack(byte[] data){
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsConnack constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts CONNACK message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the CONNACK message.
+	 */
+	public MqttsConnack(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.CONNACK;
-		returnCode = (data[2] & 0xFF);
+		returnCode = (data.get(pos + 2) & 0xFF);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the CONNACK message as it should appear on the wire.
+	 * @return The length of the CONNACK message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 3;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the CONNACK message as it should appear on the wire.
 	 */
-	public byte[] toBytes() {
-		int length = 3;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;   
-		data[1] = (byte)msgType;  
-		data[2] = (byte)returnCode;  	
-		return data;
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 3);
+		buffer.put((byte) msgType);
+		buffer.put((byte) returnCode);
 	}
 		
 	public int getReturnCode() {
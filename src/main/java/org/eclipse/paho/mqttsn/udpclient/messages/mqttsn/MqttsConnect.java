@@ -17,7 +17,7 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
@@ -34,6 +34,8 @@ public class MqttsConnect extends MqttsMessage{
 	private String protocolId;
 	private int duration;	
 	private String clientId;
+	//clientId as sent on the wire, encoded on first use
+	private byte[] encodedClientId;
 	
 	//Protocol name and protocol version are embedded in the "protocolId" variable.
 	//Mqtts protocol does not use them separately.
@@ -53,42 +55,51 @@ public class MqttsConnect extends MqttsMessage{
 	 * @param data: The buffer that contains the CONNECT message.
 	 */
 	public MqttsConnect(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsConnect constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts CONNECT message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the CONNECT message.
+	 */
+	public MqttsConnect(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.CONNECT;		
-		will = ((data[2] & 0x08) >> 3 != 0);
-		cleanSession = ((data[2] & 0x04) >> 2 !=0);
-		duration = ((data[4] & 0xFF) << 8) + (data[5] & 0xFF);
+		will = ((data.get(pos + 2) & 0x08) >> 3 != 0);
+		cleanSession = ((data.get(pos + 2) & 0x04) >> 2 !=0);
+		duration = ((data.get(pos + 4) & 0xFF) << 8) + (data.get(pos + 5) & 0xFF);
 	
 	//  TODO handle this fields
 		protocolName = "MQIsdp";
 		protocolVersion = 3;
 	
-		byte[] byteClientId = new byte[data[0] - 6];
-		System.arraycopy(data, 6, byteClientId, 0, byteClientId.length);
-		try {
-			clientId = new String(byteClientId, Utils.STRING_ENCODING);
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
+		clientId = Utils.decodeString(data, pos + 6, (data.get(pos) & 0xFF) - 6);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the CONNECT message as it should appear on the wire.
-	 * (Don't needed in the GW)
-	 */	
-	public byte[] toBytes(){
-		int length = 6 + clientId.length();
-		byte[] data = new byte[length];
-		data[0] = (byte)length;   
-		data[1] = (byte)msgType;  
-		data[2] = (byte)0x00;  
-		if(will)  data[2] |= 0x08;
-		if(cleanSession) data[2] |= 0x04;
-		data[3] = (byte)0x01;  // TODO handle this fields
-		data[4] = (byte)((duration >> 8) & 0xFF);
-		data[5] = (byte)(duration & 0xFF);
-		System.arraycopy(clientId.getBytes(), 0, data, 6, clientId.length());		
-		return data;
+	 * @return The length of the CONNECT message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return frameLength(5 + getEncodedClientId().length);
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the CONNECT message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		byte[] id = getEncodedClientId();
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		int flags = 0x00;
+		if(will)  flags |= 0x08;
+		if(cleanSession) flags |= 0x04;
+		buffer.put((byte) flags);
+		buffer.put((byte) 0x01);  // TODO handle this fields
+		buffer.putShort((short) duration);
+		buffer.put(id);
 	}
 	
 	public boolean isWill() {
@@ -145,5 +156,13 @@ public class MqttsConnect extends MqttsMessage{
 
 	public void setClientId(String clientId) {
 		this.clientId = clientId;
+		this.encodedClientId = null;
+	}
+
+	private byte[] getEncodedClientId() {
+		if (encodedClientId == null) {
+			encodedClientId = Utils.encodeString(clientId);
+		}
+		return encodedClientId;
 	}
 }
\ No newline at end of file
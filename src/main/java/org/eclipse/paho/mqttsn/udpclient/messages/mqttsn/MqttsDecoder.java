@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Creates the message object of one message type from a received message, see
+ * {@link MqttsRegistry}.
+ */
+public interface MqttsDecoder {
+
+	/**
+	 * @param data the buffer, the message starts at its position and ends at its limit; the
+	 * length of the message has been checked already
+	 * @param copyPayload false if the message may keep referring to the buffer instead of
+	 * copying its payload
+	 */
+	MqttsMessage decode(ByteBuffer data, boolean copyPayload);
+}
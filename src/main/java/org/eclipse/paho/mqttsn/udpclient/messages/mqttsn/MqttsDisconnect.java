@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts DISCONNECT message.
  * 
@@ -38,6 +40,16 @@ public class MqttsDisconnect extends MqttsMessage {
 	 * @param data: The buffer that contains the DISCONNECT message.
 	 */
 	public MqttsDisconnect(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsDisconnect constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts DISCONNECT message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the DISCONNECT message.
+	 */
+	public MqttsDisconnect(ByteBuffer data) {
 		msgType = MqttsMessage.DISCONNECT;
 	}
 
@@ -47,19 +59,21 @@ public class MqttsDisconnect extends MqttsMessage {
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the DISCONNECT message as it should appear on the wire.
-	 */	
-	public byte[] toBytes() {
-		int length = 2;
-		if (sleepDuration > 0) length = 4;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;
-		data[1] = (byte)msgType;
+	 * @return The length of the DISCONNECT message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return sleepDuration > 0 ? 4 : 2;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the DISCONNECT message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) encodedLength());
+		buffer.put((byte) msgType);
 		if (sleepDuration > 0) {
-			data[2] = (byte) ((sleepDuration >> 8) & 0xFF);
-			data[3] = (byte) (sleepDuration & 0xFF);
+			buffer.putShort(sleepDuration);
 		}
-		return data;
 	}
 }
\ No newline at end of file
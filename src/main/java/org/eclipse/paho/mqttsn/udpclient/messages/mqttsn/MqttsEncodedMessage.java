@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Mqtts message without variable fields, kept as its encoded bytes. Instances are immutable
+ * and shared by all clients, so sending one neither allocates nor encodes anything.
+ */
+public final class MqttsEncodedMessage extends MqttsMessage {
+
+	//PINGREQ without ClientId
+	public static final MqttsEncodedMessage PINGREQ_FRAME =
+			new MqttsEncodedMessage(new byte[] {2, (byte) PINGREQ});
+	public static final MqttsEncodedMessage PINGRESP_FRAME =
+			new MqttsEncodedMessage(new byte[] {2, (byte) PINGRESP});
+	//DISCONNECT without Duration
+	public static final MqttsEncodedMessage DISCONNECT_FRAME =
+			new MqttsEncodedMessage(new byte[] {2, (byte) DISCONNECT});
+
+	private final byte[] data;
+
+	private MqttsEncodedMessage(byte[] data) {
+		this.data = data;
+		msgType = data[1] & 0xFF;
+	}
+
+	/**
+	 * @return The length of the message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return data.length;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put(data);
+	}
+}
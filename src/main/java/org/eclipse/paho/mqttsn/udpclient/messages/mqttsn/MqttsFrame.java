@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A flyweight view of a received Mqtts message: it wraps the encoded message in a buffer and
+ * reads the fields on demand, without copying and without allocating. One instance can be
+ * reused for any number of messages of any type; it is only valid as long as the wrapped bytes
+ * are not changed. A getter of a field the message type does not have (or that is left out of
+ * an optional part of the message) returns -1.
+ */
+public class MqttsFrame {
+
+	//offset of each field behind the MsgType field, per message type (-1 = no such field)
+	private final static int[] FLAGS = new int[256];
+	private final static int[] TOPIC_ID = new int[256];
+	private final static int[] MSG_ID = new int[256];
+	private final static int[] RETURN_CODE = new int[256];
+	private final static int[] GW_ID = new int[256];
+	private final static int[] DURATION = new int[256];
+	private final static int[] PAYLOAD = new int[256];
+	//length of the mandatory fields behind the MsgType field (-1 = unknown message type)
+	private final static int[] FIXED_LENGTH = new int[256];
+
+	static {
+		Arrays.fill(FLAGS, -1);
+		Arrays.fill(TOPIC_ID, -1);
+		Arrays.fill(MSG_ID, -1);
+		Arrays.fill(RETURN_CODE, -1);
+		Arrays.fill(GW_ID, -1);
+		Arrays.fill(DURATION, -1);
+		Arrays.fill(PAYLOAD, -1);
+		Arrays.fill(FIXED_LENGTH, -1);
+
+		//    type                         fixed flags topic msgId rc  gwId dur payload
+		define(MqttsMessage.ADVERTISE,     3,    -1,   -1,   -1,   -1, 0,   1,  -1);
+		define(MqttsMessage.SEARCHGW,      1,    -1,   -1,   -1,   -1, -1,  -1, -1);
+		define(MqttsMessage.GWINFO,        1,    -1,   -1,   -1,   -1, 0,   -1, 1);
+		define(MqttsMessage.CONNECT,       4,    0,    -1,   -1,   -1, -1,  2,  4);
+		define(MqttsMessage.CONNACK,       1,    -1,   -1,   -1,   0,  -1,  -1, -1);
+		define(MqttsMessage.WILLTOPICREQ,  0,    -1,   -1,   -1,   -1, -1,  -1, -1);
+		define(MqttsMessage.WILLTOPIC,     0,    0,    -1,   -1,   -1, -1,  -1, 1);
+		define(MqttsMessage.WILLMSGREQ,    0,    -1,   -1,   -1,   -1, -1,  -1, -1);
+		define(MqttsMessage.WILLMSG,       0,    -1,   -1,   -1,   -1, -1,  -1, 0);
+		define(MqttsMessage.REGISTER,      4,    -1,   0,    2,    -1, -1,  -1, 4);
+		define(MqttsMessage.REGACK,        5,    -1,   0,    2,    4,  -1,  -1, -1);
+		define(MqttsMessage.PUBLISH,       5,    0,    1,    3,    -1, -1,  -1, 5);
+		define(MqttsMessage.PUBACK,        5,    -1,   0,    2,    4,  -1,  -1, -1);
+		define(MqttsMessage.PUBCOMP,       2,    -1,   -1,   0,    -1, -1,  -1, -1);
+		define(MqttsMessage.PUBREC,        2,    -1,   -1,   0,    -1, -1,  -1, -1);
+		define(MqttsMessage.PUBREL,        2,    -1,   -1,   0,    -1, -1,  -1, -1);
+		define(MqttsMessage.SUBSCRIBE,     3,    0,    -1,   1,    -1, -1,  -1, 3);
+		define(MqttsMessage.SUBACK,        6,    0,    1,    3,    5,  -1,  -1, -1);
+		define(MqttsMessage.UNSUBSCRIBE,   3,    0,    -1,   1,    -1, -1,  -1, 3);
+		define(MqttsMessage.UNSUBACK,      2,    -1,   -1,   0,    -1, -1,  -1, -1);
+		define(MqttsMessage.PINGREQ,       0,    -1,   -1,   -1,   -1, -1,  -1, 0);
+		define(MqttsMessage.PINGRESP,      0,    -1,   -1,   -1,   -1, -1,  -1, -1);
+		define(MqttsMessage.DISCONNECT,    0,    -1,   -1,   -1,   -1, -1,  0,  -1);
+		define(MqttsMessage.WILLTOPICUPD,  0,    0,    -1,   -1,   -1, -1,  -1, 1);
+		define(MqttsMessage.WILLTOPICRESP, 1,    -1,   -1,   -1,   0,  -1,  -1, -1);
+		define(MqttsMessage.WILLMSGUPD,    0,    -1,   -1,   -1,   -1, -1,  -1, 0);
+		define(MqttsMessage.WILLMSGRESP,   1,    -1,   -1,   -1,   0,  -1,  -1, -1);
+	}
+
+	private static void define(int msgType, int fixedLength, int flags, int topicId, int msgId,
+			int returnCode, int gwId, int duration, int payload) {
+		FIXED_LENGTH[msgType] = fixedLength;
+		FLAGS[msgType] = flags;
+		TOPIC_ID[msgType] = topicId;
+		MSG_ID[msgType] = msgId;
+		RETURN_CODE[msgType] = returnCode;
+		GW_ID[msgType] = gwId;
+		DURATION[msgType] = duration;
+		PAYLOAD[msgType] = payload;
+	}
+
+	/**
+	 * Checks the length of a message against the fields of its type.
+	 *
+	 * @param bodyLength the length of the message behind the MsgType field
+	 * @return false if the message type is unknown or the length does not fit it
+	 */
+	public static boolean isValidLength(int msgType, int bodyLength) {
+		int fixedLength = FIXED_LENGTH[msgType & 0xFF];
+		if (fixedLength < 0 || bodyLength < fixedLength) {
+			return false;
+		}
+		if (PAYLOAD[msgType & 0xFF] >= 0) {
+			return true;
+		}
+		//a DISCONNECT may carry a sleep duration
+		return bodyLength == fixedLength || (msgType == MqttsMessage.DISCONNECT && bodyLength == 2);
+	}
+
+	private ByteBuffer buffer;
+	private int start;
+	private int end;
+	//position of the first field behind MsgType
+	private int body;
+	private int msgType;
+
+	/**
+	 * Wraps the message starting at this index of the buffer. The length field of the message
+	 * must have been checked against the data available.
+	 *
+	 * @return this view
+	 */
+	public MqttsFrame wrap(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.start = offset;
+		int headerLength;
+		if (buffer.get(offset) == 0x01) {
+			this.end = offset + (buffer.getShort(offset + 1) & 0xFFFF);
+			headerLength = 3;
+		} else {
+			this.end = offset + (buffer.get(offset) & 0xFF);
+			headerLength = 1;
+		}
+		this.msgType = buffer.get(offset + headerLength) & 0xFF;
+		this.body = offset + headerLength + 1;
+		return this;
+	}
+
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	public int offset() {
+		return start;
+	}
+
+	public int length() {
+		return end - start;
+	}
+
+	public int msgType() {
+		return msgType;
+	}
+
+	/**
+	 * @return the index of the field in the buffer, -1 if the message does not contain it
+	 */
+	private int index(int[] fields, int size) {
+		int offset = fields[msgType];
+		if (offset < 0 || body + offset + size > end) {
+			return -1;
+		}
+		return body + offset;
+	}
+
+	private int uint8(int[] fields) {
+		int i = index(fields, 1);
+		return i < 0 ? -1 : buffer.get(i) & 0xFF;
+	}
+
+	private int uint16(int[] fields) {
+		int i = index(fields, 2);
+		return i < 0 ? -1 : buffer.getShort(i) & 0xFFFF;
+	}
+
+	public int flags() {
+		return uint8(FLAGS);
+	}
+
+	/**
+	 * @return the QoS level of the flags, -1 for QoS level -1 (or if there are no flags)
+	 */
+	public int qos() {
+		int flags = flags();
+		if (flags < 0) {
+			return -1;
+		}
+		int qos = (flags & 0x60) >> 5;
+		return qos == 3 ? -1 : qos;
+	}
+
+	public boolean isDup() {
+		int flags = flags();
+		return flags >= 0 && (flags & 0x80) != 0;
+	}
+
+	public boolean isRetain() {
+		int flags = flags();
+		return flags >= 0 && (flags & 0x10) != 0;
+	}
+
+	public int topicIdType() {
+		int flags = flags();
+		return flags < 0 ? -1 : flags & 0x03;
+	}
+
+	public int topicId() {
+		return uint16(TOPIC_ID);
+	}
+
+	public int msgId() {
+		return uint16(MSG_ID);
+	}
+
+	public int returnCode() {
+		return uint8(RETURN_CODE);
+	}
+
+	public int gwId() {
+		return uint8(GW_ID);
+	}
+
+	public int duration() {
+		return uint16(DURATION);
+	}
+
+	/**
+	 * @return the index in the buffer of the variable length part of the message (PUBLISH data,
+	 * topic name, client id, ...), -1 if the message type has none
+	 */
+	public int payloadOffset() {
+		int offset = PAYLOAD[msgType];
+		if (offset < 0) {
+			return -1;
+		}
+		return Math.min(body + offset, end);
+	}
+
+	public int payloadLength() {
+		int offset = payloadOffset();
+		return offset < 0 ? 0 : end - offset;
+	}
+}
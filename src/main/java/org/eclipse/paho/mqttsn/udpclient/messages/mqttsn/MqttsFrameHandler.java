@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
+
+/**
+ * Handles received messages of one type that are read through a flyweight view, see
+ * {@link MqttsRegistry#setFrameHandler(int, MqttsFrameHandler)}. Called by the client thread;
+ * the view must not be kept after the call.
+ */
+public interface MqttsFrameHandler {
+
+	void handleFrame(MqttsFrame frame);
+}
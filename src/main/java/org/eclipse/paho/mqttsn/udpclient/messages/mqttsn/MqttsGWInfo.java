@@ -16,6 +16,10 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
+
 /**
  * This object represents a Mqtts GWINFO message.
  * 
@@ -40,25 +44,42 @@ public class MqttsGWInfo extends MqttsMessage {
 	 * @param data: The buffer that contains the GWINFO message.
 	 */
 	public MqttsGWInfo(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsGWInfo constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts GWINFO message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the GWINFO message.
+	 */
+	public MqttsGWInfo(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.GWINFO;
-		gwId = (data[2] & 0xFF);
-		if(data.length > 3)
-			System.arraycopy(data, 3, gwAdd, 0, data.length - 3); 
+		gwId = (data.get(pos + 2) & 0xFF);
+		if(data.remaining() > 3)
+			gwAdd = Utils.SliceByteBuffer(data, pos + 3, data.remaining() - 3);
 	}
 
 
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the GWINFO message as it should appear on the wire.
-	 */	
-	public byte[] toBytes() {
-		int length = 3 + gwAdd.length;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;
-		data[1] = (byte)msgType;
-		data[2] = (byte)gwId;
-		System.arraycopy(gwAdd, 0, data, 3, gwAdd.length);
-		return data;
+	 * @return The length of the GWINFO message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return gwAdd == null ? 3 : 3 + gwAdd.length;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the GWINFO message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) encodedLength());
+		buffer.put((byte) msgType);
+		buffer.put((byte) gwId);
+		if (gwAdd != null) {
+			buffer.put(gwAdd);
+		}
 	}
 	
 	public int getGwId() {
@@ -17,6 +17,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts message. It is subclassed
  * to create the appropriate Mqtts Message.
@@ -54,7 +56,8 @@ public abstract class MqttsMessage {
 	public static final int WILLMSGUPD   	= 0x1C;
 	public static final int WILLMSGRESP   	= 0x1D;
 	
-	//Mqtts message type
+	//Mqtts message type, set by the constructors of the subclasses and not changed afterwards,
+	//so that a message can be shared (see MqttsEncodedMessage)
 	protected int msgType;
 	
 	//Types of topic Ids
@@ -75,24 +78,48 @@ public abstract class MqttsMessage {
 	 */
 	public MqttsMessage() {}
 	
+	/**
+	 * Method to convert this message to a byte array for transmission.
+	 * Prefer {@link #encodeTo(ByteBuffer)} on hot paths, it does not allocate.
+	 * @return A byte array containing the message as it should appear on the wire.
+	 */
+	public byte[] toBytes() {
+		byte[] data = new byte[encodedLength()];
+		encodeTo(ByteBuffer.wrap(data));
+		return data;
+	}
+
 	/**
 	 * This method is implemented in subclasses.
+	 * @return The number of bytes the message occupies on the wire.
+	 */
+	public abstract int encodedLength();
+
+	/**
+	 * This method is implemented in subclasses. Writes the message as it should appear
+	 * on the wire into the buffer, starting at its position, and advances the position.
+	 * @param buffer: The buffer, must have at least encodedLength() bytes remaining.
 	 */
-	public abstract byte[] toBytes ();		
+	public abstract void encodeTo(ByteBuffer buffer);
 
 	
 	public int getMsgType() {
 		return msgType;
 	}
 
-	public void setMsgType(int msgType) {
-		this.msgType = msgType;
-	}
-
 	public static int getLength(byte[] data) {
 		return data[0] == 0x01 ? ((data[1] & 0x00ff) << 8) + (data[2] & 0x00ff) : data[0] & 0x00ff;
 	}
 
+	/**
+	 * Same as {@link #getLength(byte[])} for a message starting at the current
+	 * position of the buffer.
+	 */
+	public static int getLength(ByteBuffer data) {
+		int pos = data.position();
+		return data.get(pos) == 0x01 ? ((data.get(pos + 1) & 0x00ff) << 8) + (data.get(pos + 2) & 0x00ff) : data.get(pos) & 0x00ff;
+	}
+
 	public static byte[] setLength(byte[] data, int length) {
 		if (length > 255) {
 			data[0] = 0x01;
@@ -104,6 +131,50 @@ public abstract class MqttsMessage {
 		return data;
 	}
 
+	/**
+	 * @param bodyLength: Length of the message without the length field.
+	 * @return The total length, including a 1 or 3 byte length field.
+	 */
+	protected static int frameLength(int bodyLength) {
+		return bodyLength + 1 > 255 ? bodyLength + 3 : bodyLength + 1;
+	}
+
+	/**
+	 * Writes the length field as {@link #setLength(byte[], int)} does.
+	 */
+	protected static void putLength(ByteBuffer buffer, int length) {
+		if (length > 255) {
+			buffer.put((byte) 0x01);
+			buffer.putShort((short) length);
+		} else {
+			buffer.put((byte) length);
+		}
+	}
+
+	/**
+	 * Writes the two characters of a short topic name.
+	 */
+	protected static void putShortTopicName(ByteBuffer buffer, String shortTopicName) {
+		buffer.put((byte) shortTopicName.charAt(0));
+		buffer.put((byte) shortTopicName.charAt(1));
+	}
+
+	/**
+	 * @return The QoS bits of the flags field.
+	 */
+	protected static int qosFlags(int qos) {
+		if(qos == -1) {
+			return 0x60;
+		} else if(qos == 0) {
+			return 0x00;
+		} else if(qos == 1) {
+			return 0x20;
+		} else if(qos == 2) {
+			return 0x40;
+		}
+		throw new IllegalArgumentException("Unknown QoS value: " + qos);
+	}
+
 	public static void main(String[] args) {
 
 	}
@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts PINGREQ message.
  * 
@@ -36,18 +38,32 @@ public class MqttsPingReq extends MqttsMessage {
 	 * @param data: The buffer that contains the PINGREQ message.
 	 */
 	public MqttsPingReq(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsPingReq constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts PINGREQ message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the PINGREQ message.
+	 */
+	public MqttsPingReq(ByteBuffer data) {
 		msgType = MqttsMessage.PINGREQ;
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the PINGREQ message as it should appear on the wire.
-	 */	
-	public byte[] toBytes() {
-		int length = 2;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;
-		data[1] = (byte)msgType;		
-		return data;
+	 * @return The length of the PINGREQ message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 2;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the PINGREQ message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 2);
+		buffer.put((byte) msgType);
 	}
 }
\ No newline at end of file
@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts PUBREC message.
  * 
@@ -39,22 +41,36 @@ public class MqttsPubRec extends MqttsMessage {
 	 * @param data: The buffer that contains the PUBREC message.
 	 */
 	public MqttsPubRec(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsPubRec constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts PUBREC message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the PUBREC message.
+	 */
+	public MqttsPubRec(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.PUBREC;
-		msgId = ((data[2] & 0xFF) << 8) + (data[3] & 0xFF);
+		msgId = ((data.get(pos + 2) & 0xFF) << 8) + (data.get(pos + 3) & 0xFF);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the PUBREC message as it should appear on the wire.
+	 * @return The length of the PUBREC message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 4;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the PUBREC message as it should appear on the wire.
 	 */
-	public byte[] toBytes() {
-		int length = 4;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;   
-		data[1] = (byte)msgType;  
-		data[2] = (byte)((msgId >> 8) & 0xFF);
-		data[3] = (byte)(msgId & 0xFF);	
-		return data;		
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 4);
+		buffer.put((byte) msgType);
+		buffer.putShort((short) msgId);
 	}
 
 	public int getMsgId() {
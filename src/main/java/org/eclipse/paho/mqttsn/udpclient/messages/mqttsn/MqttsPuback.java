@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts PUBACK message.
  * 
@@ -46,35 +48,46 @@ public class MqttsPuback extends MqttsMessage {
 	 * @param data: The buffer that contains the PUBACK message.
 	 */
 	public MqttsPuback(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsPuback constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts PUBACK message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the PUBACK message.
+	 */
+	public MqttsPuback(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.PUBACK;		
-		msgId = ((data[4] & 0xFF) << 8) + (data[5] & 0xFF);
-		returnCode = (data[6] & 0xFF);
-		if (returnCode == MqttsMessage.RETURN_CODE_INVALID_TOPIC_ID);
-			topicId = ((data[2] & 0xFF) << 8) + (data[3] & 0xFF);
+		msgId = ((data.get(pos + 4) & 0xFF) << 8) + (data.get(pos + 5) & 0xFF);
+		returnCode = (data.get(pos + 6) & 0xFF);
+		topicId = ((data.get(pos + 2) & 0xFF) << 8) + (data.get(pos + 3) & 0xFF);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the PUBACK message as it should appear on the wire.
+	 * @return The length of the PUBACK message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 7;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the PUBACK message as it should appear on the wire.
 	 */
-	public byte[] toBytes() {
-		int length = 7;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;   
-		data[1] = (byte)msgType;
-		
-		byteTopicId = new byte[2];
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 7);
+		buffer.put((byte) msgType);
 		if (this.topicId != 0){
-			byteTopicId[0] = (byte)((topicId >> 8) & 0xFF);
-			byteTopicId[1] = (byte) (topicId & 0xFF);
-		}else if(this.shortTopicName != null)
-			byteTopicId = shortTopicName.getBytes();
-		
-		System.arraycopy(byteTopicId, 0, data, 2, byteTopicId.length);	
-		data[4] = (byte)((msgId >> 8) & 0xFF);
-		data[5] = (byte) (msgId & 0xFF);
-		data[6] = (byte)returnCode;		
-		return data;
+			buffer.putShort((short) topicId);
+		}else if(this.shortTopicName != null){
+			putShortTopicName(buffer, shortTopicName);
+		}else{
+			buffer.putShort((short) 0);
+		}
+		buffer.putShort((short) msgId);
+		buffer.put((byte) returnCode);
 	}
 	
 
@@ -16,7 +16,7 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
@@ -37,11 +37,17 @@ public class MqttsPublish extends MqttsMessage {
 	private int msgId;
 	private byte[] pubData = null;
 	
+	//Read-only view of the payload inside the receive buffer (see MqttsPublish(ByteBuffer, boolean))
+	private ByteBuffer payload = null;
+	
 	//The form of TopicId (or short topic name) that depends on topicIdType.
 	//Maybe either an int or a String.
 	private int topicId = 0;
 	private String shortTopicName = "";
 	
+	//The pre-encoded MsgType, Flags and TopicId if created from a template
+	private MqttsPublishTemplate template = null;
+	
 	
 	/**
 	 * MqttsPublish constructor.Sets the appropriate message type. 
@@ -50,61 +56,115 @@ public class MqttsPublish extends MqttsMessage {
 		msgType = MqttsMessage.PUBLISH;
 	}
 	
+	/**
+	 * MqttsPublish constructor.Constructs a Mqtts PUBLISH message to the topic of
+	 * a template, which is encoded with the header bytes of the template.
+	 * @param template: The QoS, retain flag and topic of the message.
+	 * @param msgId: The message id, 0 for QoS 0 and -1.
+	 * @param data: The payload.
+	 */
+	public MqttsPublish(MqttsPublishTemplate template, int msgId, byte[] data) {
+		msgType = MqttsMessage.PUBLISH;
+		this.template = template;
+		this.qos = template.getQos();
+		this.retain = template.isRetain();
+		this.topicIdType = template.getTopicIdType();
+		this.topicId = template.getTopicId();
+		this.shortTopicName = template.getShortTopicName();
+		this.msgId = msgId;
+		this.pubData = data;
+	}
+	
 	/**
 	 * MqttsPublish constructor.Sets the appropriate message type and constructs 
 	 * a Mqtts PUBLISH message from a received byte array.
 	 * @param data: The buffer that contains the PUBLISH message.
 	 */
 	public MqttsPublish(byte[] data) {
-		int headerLength = data[0] == 0x01 ? 9 : 7;
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsPublish constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts PUBLISH message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the PUBLISH message.
+	 */
+	public MqttsPublish(ByteBuffer data) {
+		this(data, true);
+	}
+
+	/**
+	 * MqttsPublish constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts PUBLISH message from a received buffer.
+	 * If copyPayload is false the payload is not copied: the message keeps a read-only
+	 * view into the buffer, which therefore must not be reused before the message is handled.
+	 * {@link #getData()} copies the payload out of the view on first use.
+	 * @param data: The buffer that contains the PUBLISH message.
+	 * @param copyPayload: Whether the payload is copied into a byte array right away.
+	 */
+	public MqttsPublish(ByteBuffer data, boolean copyPayload) {
+		int pos = data.position();
+		int headerLength = data.get(pos) == 0x01 ? 9 : 7;
 		int length = getLength(data);
 		msgType = MqttsMessage.PUBLISH;
-		dup = ((data[headerLength - 5] & 0x80) >> 7 != 0);
-		qos = (data[headerLength - 5] & 0x60) >> 5;
+		int flags = data.get(pos + headerLength - 5);
+		dup = ((flags & 0x80) >> 7 != 0);
+		qos = (flags & 0x60) >> 5;
 		if(qos == 3) qos = -1;
-		retain = ((data[headerLength - 5] & 0x10) >> 4 != 0);
-		topicIdType = (data[headerLength - 5] & 0x03);
+		retain = ((flags & 0x10) >> 4 != 0);
+		topicIdType = (flags & 0x03);
 		
 		byteTopicId = new byte[2];
-		byteTopicId[0] = data[headerLength - 4];
-		byteTopicId[1] = data[headerLength - 3];
+		byteTopicId[0] = data.get(pos + headerLength - 4);
+		byteTopicId[1] = data.get(pos + headerLength - 3);
 		
-		try {
-			if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME)
-				shortTopicName = new String(byteTopicId,Utils.STRING_ENCODING);
-			else if(topicIdType == MqttsMessage.NORMAL_TOPIC_ID || topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
-				topicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
-			}
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
+		if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME)
+			shortTopicName = Utils.decodeString(data, pos + headerLength - 4, 2);
+		else if(topicIdType == MqttsMessage.NORMAL_TOPIC_ID || topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
+			topicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
 		}
 
-		msgId   = ((data[headerLength - 2] & 0xFF) << 8) + (data[headerLength - 1] & 0xFF);
-		pubData = new byte[length - headerLength];
-		System.arraycopy(data, headerLength, pubData, 0, length - headerLength);
+		msgId   = ((data.get(pos + headerLength - 2) & 0xFF) << 8) + (data.get(pos + headerLength - 1) & 0xFF);
+		if (copyPayload) {
+			pubData = Utils.SliceByteBuffer(data, pos + headerLength, length - headerLength);
+		} else {
+			payload = data.asReadOnlyBuffer();
+			payload.limit(pos + length);
+			payload.position(pos + headerLength);
+		}
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the PUBLISH message as it should appear on the wire.
+	 * @return The length of the PUBLISH message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return frameLength(6 + getPayloadLength());
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the PUBLISH message as it should appear on the wire.
 	 */
-	public byte[] toBytes() {
+	public void encodeTo(ByteBuffer buffer) {
+		if (template != null) {
+			byte[] header = template.getHeader();
+			putLength(buffer, encodedLength());
+			buffer.put(header[0]);
+			buffer.put(dup ? (byte) (header[1] | 0x80) : header[1]);
+			buffer.put(header[2]);
+			buffer.put(header[3]);
+			buffer.putShort((short) msgId);
+			if (pubData != null) {
+				buffer.put(pubData);
+			}
+			return;
+		}
 		int flags = 0;
 		if(dup) {
 			flags |= 0x80;
 		}
-		if(qos == -1) {
-			flags |= 0x60;
-		} else if(qos == 0) {
-
-		} else if(qos == 1) {
-			flags |= 0x20;
-		} else if(qos == 2) {
-			flags |= 0x40;
-		} else {
-			throw new IllegalArgumentException("Unknown QoS value: " + qos);
-		}
-
+		flags |= qosFlags(qos);
 		if(retain) {
 			flags |= 0x10;
 		}
@@ -119,25 +179,19 @@ public class MqttsPublish extends MqttsMessage {
 			throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
 		}
 
-		int headerLength = pubData.length + 7 > 255 ? 9 : 7;
-		int length = pubData.length + headerLength;
-		byte[] data = setLength(new byte[length], length);
-		data[headerLength - 6] = (byte)msgType;
-		data[headerLength - 5] = (byte)flags;
-
-		byteTopicId = new byte[2];
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		buffer.put((byte) flags);
 		if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME)
-			byteTopicId = shortTopicName.getBytes();
-		else if(topicIdType == MqttsMessage.NORMAL_TOPIC_ID){
-			byteTopicId[0] = (byte)((topicId >> 8) & 0xFF);
-			byteTopicId[1] = (byte) (topicId & 0xFF);
-		}else
-			throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
-		System.arraycopy(byteTopicId, 0, data, headerLength - 4, byteTopicId.length);
-		data[headerLength - 2] = (byte)((msgId >> 8) & 0xFF);
-		data[headerLength - 1] = (byte) (msgId & 0xFF);
-		System.arraycopy(pubData, 0, data, headerLength, pubData.length);
-		return data;
+			putShortTopicName(buffer, shortTopicName);
+		else
+			buffer.putShort((short) topicId);
+		buffer.putShort((short) msgId);
+		if (pubData != null) {
+			buffer.put(pubData);
+		} else if (payload != null) {
+			buffer.put(payload.duplicate());
+		}
 	}
 
 	public boolean isDup() {
@@ -154,6 +208,7 @@ public class MqttsPublish extends MqttsMessage {
 
 	public void setQos(int qos) {
 		this.qos = qos;
+		this.template = null;
 	}
 
 	public boolean isRetain() {
@@ -162,6 +217,7 @@ public class MqttsPublish extends MqttsMessage {
 
 	public void setRetain(boolean retain) {
 		this.retain = retain;
+		this.template = null;
 	}
 
 	public int getTopicIdType() {
@@ -170,14 +226,31 @@ public class MqttsPublish extends MqttsMessage {
 
 	public void setTopicIdType(int topicIdType) {
 		this.topicIdType = topicIdType;
+		this.template = null;
 	}
 
 	public byte[] getData() {
+		if (pubData == null && payload != null) {
+			pubData = Utils.SliceByteBuffer(payload, payload.position(), payload.remaining());
+		}
 		return pubData;
 	}
 
 	public void setData(byte[] data) {
 		this.pubData = data;
+		this.payload = null;
+	}
+
+	/**
+	 * @return A read-only buffer whose remaining bytes are the payload. If the message was
+	 * decoded without copying, this is a view into the receive buffer and only valid while
+	 * the message is being handled.
+	 */
+	public ByteBuffer getPayload() {
+		if (payload == null && pubData != null) {
+			payload = ByteBuffer.wrap(pubData).asReadOnlyBuffer();
+		}
+		return payload;
 	}
 
 	public byte[] getByteTopicId() {
@@ -202,6 +275,7 @@ public class MqttsPublish extends MqttsMessage {
 
 	public void setTopicId(int topicId) {
 		this.topicId = topicId;
+		this.template = null;
 	}
 
 	public String getShortTopicName() {
@@ -210,5 +284,13 @@ public class MqttsPublish extends MqttsMessage {
 
 	public void setShortTopicName(String shortTopicName) {
 		this.shortTopicName = shortTopicName;
+		this.template = null;
+	}
+
+	private int getPayloadLength() {
+		if (pubData != null) {
+			return pubData.length;
+		}
+		return payload == null ? 0 : payload.remaining();
 	}
 }
\ No newline at end of file
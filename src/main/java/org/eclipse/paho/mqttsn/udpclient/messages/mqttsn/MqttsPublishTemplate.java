@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
+
+/**
+ * The part of a PUBLISH message that is the same on every send to a topic: MsgType, Flags
+ * (without DUP) and TopicId, encoded once. A PUBLISH created from a template only writes the
+ * length, the MsgId and the payload around these bytes.
+ */
+public final class MqttsPublishTemplate {
+
+	private final int qos;
+	private final boolean retain;
+	private final int topicIdType;
+	private final int topicId;
+	//the two characters of a short topic name, null for the other topic id types
+	private final String shortTopicName;
+
+	//MsgType, Flags, TopicId as they appear on the wire
+	private final byte[] header = new byte[4];
+
+	/**
+	 * @param topicIdType: NORMAL_TOPIC_ID, PREDIFINED_TOPIC_ID or SHORT_TOPIC_NAME
+	 * @param topicId: The topic id, or for a short topic name its two characters as
+	 * (first << 8) | second.
+	 * @param qos: -1, 0, 1 or 2
+	 */
+	public MqttsPublishTemplate(int topicIdType, int topicId, int qos, boolean retain) {
+		int flags = MqttsMessage.qosFlags(qos);
+		if(retain) {
+			flags |= 0x10;
+		}
+		if(topicIdType == MqttsMessage.NORMAL_TOPIC_ID){
+			//do nothing
+		}else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
+			flags |= 0x01;
+		}else if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME){
+			flags |= 0x02;
+		}else {
+			throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
+		}
+		if (topicId < 0 || topicId > 0xFFFF) {
+			throw new IllegalArgumentException("Topic id out of range: " + topicId);
+		}
+		this.qos = qos;
+		this.retain = retain;
+		this.topicIdType = topicIdType;
+		this.topicId = topicId;
+		this.shortTopicName = topicIdType == MqttsMessage.SHORT_TOPIC_NAME
+				? new String(new char[] {(char) (topicId >> 8), (char) (topicId & 0xFF)}) : null;
+		header[0] = (byte) MqttsMessage.PUBLISH;
+		header[1] = (byte) flags;
+		header[2] = (byte) (topicId >> 8);
+		header[3] = (byte) topicId;
+	}
+
+	byte[] getHeader() {
+		return header;
+	}
+
+	public int getQos() {
+		return qos;
+	}
+
+	public boolean isRetain() {
+		return retain;
+	}
+
+	public int getTopicIdType() {
+		return topicIdType;
+	}
+
+	public int getTopicId() {
+		return topicId;
+	}
+
+	public String getShortTopicName() {
+		return shortTopicName;
+	}
+}
@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 
 /**
  * This object represents a Mqtts REGACK message.
@@ -42,27 +44,40 @@ public class MqttsRegack extends MqttsMessage {
 	 * @param data: The buffer that contains the REGACK message.
 	 */	
 	public MqttsRegack(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsRegack constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts REGACK message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the REGACK message.
+	 */
+	public MqttsRegack(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.REGACK;
-		topicId = ((data[2] & 0xFF) << 8) + (data[3] & 0xFF);
-		msgId = ((data[4] & 0xFF) << 8) + (data[5] & 0xFF);
-		returnCode = (data[6] & 0xFF);
+		topicId = ((data.get(pos + 2) & 0xFF) << 8) + (data.get(pos + 3) & 0xFF);
+		msgId = ((data.get(pos + 4) & 0xFF) << 8) + (data.get(pos + 5) & 0xFF);
+		returnCode = (data.get(pos + 6) & 0xFF);
+	}
+
+	/**
+	 * @return The length of the REGACK message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 7;
 	}
 
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the REGACK message as it should appear on the wire.
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the REGACK message as it should appear on the wire.
 	 */
-	public byte[] toBytes(){
-		int length = 7;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;   
-		data[1] = (byte)msgType;  
-		data[2] = (byte)((topicId >> 8) & 0xFF);
-		data[3] = (byte)(topicId & 0xFF);
-		data[4] = (byte)((msgId >> 8) & 0xFF);
-		data[5] = (byte)(msgId & 0xFF);
-		data[6] = (byte)(returnCode);		
-		return data;		
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 7);
+		buffer.put((byte) msgType);
+		buffer.putShort((short) topicId);
+		buffer.putShort((short) msgId);
+		buffer.put((byte) returnCode);
 	}
 	
 	public int getReturnCode() {
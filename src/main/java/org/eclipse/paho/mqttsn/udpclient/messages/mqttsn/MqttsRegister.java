@@ -16,8 +16,9 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
+import org.eclipse.paho.mqttsn.udpclient.utils.TopicCache;
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
 /**
@@ -31,6 +32,8 @@ public class MqttsRegister extends MqttsMessage {
 	private int topicId;
 	private int msgId;
 	private String topicName;
+	//topicName as sent on the wire, encoded on first use
+	private byte[] encodedTopicName;
 		
 	/**
 	 * MqttsRegister constructor.Sets the appropriate message type. 
@@ -45,40 +48,43 @@ public class MqttsRegister extends MqttsMessage {
 	 * @param data: The buffer that contains the REGISTER message.
 	 */	
 	public MqttsRegister(byte[] data) {
-	  int length = getLength(data);
-	  int headerLength = data[0] == 0x01 ? 8 : 6;
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsRegister constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts REGISTER message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the REGISTER message.
+	 */
+	public MqttsRegister(ByteBuffer data) {
+		int pos = data.position();
+		int length = getLength(data);
+		int headerLength = data.get(pos) == 0x01 ? 8 : 6;
 		msgType = MqttsMessage.REGISTER;
-		topicId = 0;//send by the client  hlt: ???
 		//hlt 6.3.08
-		topicId= ((data[headerLength - 4] & 0xFF) << 8) + (data[headerLength - 3] & 0xFF);
-		msgId = ((data[headerLength - 2] & 0xFF) << 8) + (data[headerLength - 1] & 0xFF);
-		byte[] byteTopicName = new byte[length - headerLength];
-		System.arraycopy(data, headerLength, byteTopicName, 0, length - headerLength);
-		try {
-			topicName = new String(byteTopicName, Utils.STRING_ENCODING);
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
+		topicId = ((data.get(pos + headerLength - 4) & 0xFF) << 8) + (data.get(pos + headerLength - 3) & 0xFF);
+		msgId = ((data.get(pos + headerLength - 2) & 0xFF) << 8) + (data.get(pos + headerLength - 1) & 0xFF);
+		topicName = Utils.decodeString(data, pos + headerLength, length - headerLength);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the REGISTER message as it should appear on the wire.
+	 * @return The length of the REGISTER message as it appears on the wire.
 	 */
-	public byte[] toBytes() {
-		int headerLength = 6;
-		if (headerLength + topicName.length() > 255) {
-			headerLength += 2;
-		}
-		int length = headerLength + topicName.length();
-		byte[] data = setLength(new byte[length], length);
-		data[headerLength - 5] = (byte)msgType;
-		data[headerLength - 4] = (byte)((topicId >> 8) & 0xFF);
-		data[headerLength - 3] = (byte)(topicId & 0xFF);
-		data[headerLength - 2] = (byte)((msgId >> 8) & 0xFF);
-		data[headerLength - 1] = (byte)(msgId & 0xFF);
-		System.arraycopy(topicName.getBytes(), 0, data, headerLength, topicName.length());
-		return data;
+	public int encodedLength() {
+		return frameLength(5 + getEncodedTopicName().length);
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the REGISTER message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		buffer.putShort((short) topicId);
+		buffer.putShort((short) msgId);
+		buffer.put(getEncodedTopicName());
 	}
 			
 	public int getMsgId() {
@@ -103,5 +109,13 @@ public class MqttsRegister extends MqttsMessage {
 
 	public void setTopicName(String topicName) {
 		this.topicName = topicName;
+		this.encodedTopicName = null;
+	}
+
+	private byte[] getEncodedTopicName() {
+		if (encodedTopicName == null) {
+			encodedTopicName = TopicCache.encode(topicName);
+		}
+		return encodedTopicName;
 	}
 }
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What is done with each received message type, in tables indexed by the MsgType byte: how
+ * the length of the message is checked ({@link MqttsFrame#isValidLength(int, int)}), whether
+ * it is read through a flyweight {@link MqttsFrame} or decoded into a message object (and by
+ * which {@link MqttsDecoder}), and which handler of a client handles it. Types that have
+ * neither are not expected from a gateway and are dropped on receipt.
+ * <p>
+ * The decoding is the same for all clients; each client has its own handlers.
+ */
+public class MqttsRegistry {
+
+	private final static MqttsDecoder[] DECODERS = new MqttsDecoder[256];
+	private final static boolean[] FLYWEIGHT = new boolean[256];
+
+	static {
+		//short messages that only carry numbers: read through MqttsFrame, nothing is allocated
+		int[] flyweight = {MqttsMessage.CONNACK, MqttsMessage.WILLTOPICREQ, MqttsMessage.WILLMSGREQ,
+				MqttsMessage.REGACK, MqttsMessage.PUBACK, MqttsMessage.PUBCOMP, MqttsMessage.PUBREC,
+				MqttsMessage.PUBREL, MqttsMessage.SUBACK, MqttsMessage.UNSUBACK, MqttsMessage.PINGREQ,
+				MqttsMessage.PINGRESP, MqttsMessage.DISCONNECT, MqttsMessage.WILLTOPICRESP,
+				MqttsMessage.WILLMSGRESP};
+		for (int i = 0; i < flyweight.length; i++) {
+			FLYWEIGHT[flyweight[i]] = true;
+		}
+
+		DECODERS[MqttsMessage.ADVERTISE] = new MqttsDecoder() {
+			public MqttsMessage decode(ByteBuffer data, boolean copyPayload) {
+				return new MqttsAdvertise(data);
+			}
+		};
+		DECODERS[MqttsMessage.SEARCHGW] = new MqttsDecoder() {
+			public MqttsMessage decode(ByteBuffer data, boolean copyPayload) {
+				return new MqttsSearchGW(data);
+			}
+		};
+		DECODERS[MqttsMessage.GWINFO] = new MqttsDecoder() {
+			public MqttsMessage decode(ByteBuffer data, boolean copyPayload) {
+				return new MqttsGWInfo(data);
+			}
+		};
+		DECODERS[MqttsMessage.REGISTER] = new MqttsDecoder() {
+			public MqttsMessage decode(ByteBuffer data, boolean copyPayload) {
+				return new MqttsRegister(data);
+			}
+		};
+		DECODERS[MqttsMessage.PUBLISH] = new MqttsDecoder() {
+			public MqttsMessage decode(ByteBuffer data, boolean copyPayload) {
+				return new MqttsPublish(data, copyPayload);
+			}
+		};
+	}
+
+	/**
+	 * @return true if messages of this type are read through an {@link MqttsFrame}
+	 */
+	public static boolean isFlyweight(int msgType) {
+		return FLYWEIGHT[msgType & 0xFF];
+	}
+
+	/**
+	 * @return the decoder of a type delivered as message object, null if the type is read
+	 * through an {@link MqttsFrame} or not expected from a gateway
+	 */
+	public static MqttsDecoder getDecoder(int msgType) {
+		return DECODERS[msgType & 0xFF];
+	}
+
+	/**
+	 * @return true if messages of this type are expected from a gateway
+	 */
+	public static boolean isReceivable(int msgType) {
+		return FLYWEIGHT[msgType & 0xFF] || DECODERS[msgType & 0xFF] != null;
+	}
+
+	private final MqttsMessageHandler[] messageHandlers = new MqttsMessageHandler[256];
+	private final MqttsFrameHandler[] frameHandlers = new MqttsFrameHandler[256];
+
+	/**
+	 * Sets the handler of a type delivered as message object (ADVERTISE, SEARCHGW, GWINFO,
+	 * REGISTER, PUBLISH), replacing the current one; null to ignore the type.
+	 */
+	public void setMessageHandler(int msgType, MqttsMessageHandler handler) {
+		if (DECODERS[msgType & 0xFF] == null) {
+			throw new IllegalArgumentException("Mqtts message type " + msgType
+					+ " is not delivered as message object");
+		}
+		messageHandlers[msgType & 0xFF] = handler;
+	}
+
+	/**
+	 * Sets the handler of a type read through an {@link MqttsFrame}, replacing the current one;
+	 * null to ignore the type.
+	 */
+	public void setFrameHandler(int msgType, MqttsFrameHandler handler) {
+		if (!FLYWEIGHT[msgType & 0xFF]) {
+			throw new IllegalArgumentException("Mqtts message type " + msgType
+					+ " is not read through a flyweight view");
+		}
+		frameHandlers[msgType & 0xFF] = handler;
+	}
+
+	/**
+	 * @return false if there is no handler for the type of the message
+	 */
+	public boolean dispatch(MqttsMessage msg) {
+		MqttsMessageHandler handler = messageHandlers[msg.getMsgType() & 0xFF];
+		if (handler == null) {
+			return false;
+		}
+		handler.handleMessage(msg);
+		return true;
+	}
+
+	/**
+	 * @return false if there is no handler for the type of the message
+	 */
+	public boolean dispatch(MqttsFrame frame) {
+		MqttsFrameHandler handler = frameHandlers[frame.msgType()];
+		if (handler == null) {
+			return false;
+		}
+		handler.handleFrame(frame);
+		return true;
+	}
+}
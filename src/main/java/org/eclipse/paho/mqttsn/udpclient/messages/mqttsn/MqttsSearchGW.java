@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts SEARCHGW message.
  * 
@@ -39,22 +41,36 @@ public class MqttsSearchGW extends MqttsMessage{
 	 * @param data: The buffer that contains the SEARCHGW message.
 	 */	
 	public MqttsSearchGW(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsSearchGW constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts SEARCHGW message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the SEARCHGW message.
+	 */
+	public MqttsSearchGW(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.SEARCHGW;
-		radius = (data[2] & 0xFF);
+		radius = (data.get(pos + 2) & 0xFF);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the SEARCHGW message as it should appear on the wire.
-	 * (Dont't needed in the GW)
+	 * @return The length of the SEARCHGW message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 3;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the SEARCHGW message as it should appear on the wire.
 	 */
-	public byte[] toBytes(){
-		int length = 3;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;
-		data[1] = (byte)msgType;
-		data[2] = (byte)radius;	
-		return data;
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 3);
+		buffer.put((byte) msgType);
+		buffer.put((byte) radius);
 	}
 
 	public int getRadius() {
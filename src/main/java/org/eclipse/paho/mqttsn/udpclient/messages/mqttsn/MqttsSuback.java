@@ -16,7 +16,7 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
@@ -55,76 +55,65 @@ public class MqttsSuback extends MqttsMessage{
 	 * (Don't needed in the GW)
 	 */	
 	public MqttsSuback(byte[] data){
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsSuback constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts SUBACK message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the SUBACK message.
+	 */
+	public MqttsSuback(ByteBuffer data) {
+		int pos = data.position();
 		msgType = MqttsMessage.SUBACK;
-		grantedQoS = (data[2] & 0x60) >> 5;
-		if(grantedQoS == 4) grantedQoS = -1;
-		topicIdType = (data[2] & 0x03);		
+		grantedQoS = (data.get(pos + 2) & 0x60) >> 5;
+		if(grantedQoS == 3) grantedQoS = -1;
+		topicIdType = (data.get(pos + 2) & 0x03);		
 		byteTopicId = new byte[2];
-		try {
-			if (topicIdType == MqttsMessage.NORMAL_TOPIC_ID){
-				byteTopicId [0] = data[3];
-				byteTopicId [1] = data[4];
-				topicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
-			}else if(topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
-				byteTopicId [0] = data[3];
-				byteTopicId [1] = data[4];
-				predefinedTopicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
-			}else if(topicIdType == MqttsMessage.SHORT_TOPIC_NAME){
-				System.arraycopy(data, 3, byteTopicId, 0, byteTopicId.length);
-				shortTopicName = new String(byteTopicId,Utils.STRING_ENCODING);
-			}else
-				throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
-		} catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		msgId   = ((data[5] & 0xFF) << 8) + (data[6] & 0xFF);
-		returnCode = (data[7] & 0xFF);
+		byteTopicId [0] = data.get(pos + 3);
+		byteTopicId [1] = data.get(pos + 4);
+		if (topicIdType == MqttsMessage.NORMAL_TOPIC_ID){
+			topicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
+		}else if(topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
+			predefinedTopicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
+		}else if(topicIdType == MqttsMessage.SHORT_TOPIC_NAME){
+			shortTopicName = Utils.decodeString(data, pos + 3, 2);
+		}else
+			throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
+		msgId   = ((data.get(pos + 5) & 0xFF) << 8) + (data.get(pos + 6) & 0xFF);
+		returnCode = (data.get(pos + 7) & 0xFF);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the SUBACK message as it should appear on the wire.
+	 * @return The length of the SUBACK message as it appears on the wire.
 	 */
-	public byte[] toBytes() {
-		int flags = 0;
-		if(grantedQoS == -1) {
-			flags |= 0x60; 
-		} else if(grantedQoS == 0) {
-		
-		} else if(grantedQoS == 1) {
-			flags |= 0x20;
-		} else if(grantedQoS == 2) {
-			flags |= 0x40;
-		} else {
-			throw new IllegalArgumentException("Unknown QoS value: " + grantedQoS);
-		}
-		byteTopicId = new byte[2];
+	public int encodedLength() {
+		return 8;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the SUBACK message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		int flags = qosFlags(grantedQoS);
+		buffer.put((byte) 8);
+		buffer.put((byte) msgType);
 		if(topicIdType == MqttsMessage.NORMAL_TOPIC_ID){
-			byteTopicId [0] = (byte)((topicId >> 8) & 0xFF);
-			byteTopicId [1] = (byte) (topicId & 0xFF);
+			buffer.put((byte) flags);
+			buffer.putShort((short) topicId);
 		}else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
-			flags |= 0x01;
-			byteTopicId [0] = (byte)((predefinedTopicId >> 8) & 0xFF);
-			byteTopicId [1] = (byte) (predefinedTopicId & 0xFF);
+			buffer.put((byte) (flags | 0x01));
+			buffer.putShort((short) predefinedTopicId);
 		}else if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME){
-			flags |= 0x02;
-			System.arraycopy(shortTopicName.getBytes(), 0, byteTopicId, 0, byteTopicId.length);
+			buffer.put((byte) (flags | 0x02));
+			putShortTopicName(buffer, shortTopicName);
 		}else {
 			throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
 		}
-		
-		int length = 8;	
-		byte[] data = new byte[length];
-		data[0] = (byte)length;   
-		data[1] = (byte)msgType;
-		data[2] = (byte)flags; 
-		data[3] = byteTopicId[0];
-		data[4] = byteTopicId[1];
-		data[5] = (byte)((msgId >> 8) & 0xFF);
-		data[6] = (byte) (msgId & 0xFF);
-		data[7] = (byte)returnCode;		
-		return data;		
+		buffer.putShort((short) msgId);
+		buffer.put((byte) returnCode);
 	}
 	
 	
@@ -16,9 +16,10 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.utils.TopicCache;
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
 /**
@@ -39,6 +40,8 @@ public class MqttsSubscribe extends MqttsMessage {
 	//The form of TopicName(or TopicID) that depends on TopicIdType.
 	//Maybe either an int or a String.
 	private String topicName = "";
+	//topicName as sent on the wire, encoded on first use
+	private byte[] encodedTopicName;
 	private int predefinedTopicId = 0;
 	private String shortTopicName = "";
 	
@@ -56,95 +59,82 @@ public class MqttsSubscribe extends MqttsMessage {
 	 * @throws MqttsException 
 	 */	
 	public MqttsSubscribe(byte[] data) throws MqttsException {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsSubscribe constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts SUBSCRIBE message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the SUBSCRIBE message.
+	 */
+	public MqttsSubscribe(ByteBuffer data) throws MqttsException {
+		int pos = data.position();
 		int length = getLength(data);
-		int headerLength = data[0] == 0x01 ? 7 : 5;
+		int headerLength = data.get(pos) == 0x01 ? 7 : 5;
 		msgType = MqttsMessage.SUBSCRIBE;
-		dup = ((data[headerLength - 3] & 0x80) >> 7 != 0);
-		qos = (data[headerLength - 3] & 0x60) >> 5;
-		if(qos == 4) qos = -1;
-		topicIdType = (data[headerLength - 3] & 0x03);
-		msgId   = ((data[headerLength - 2] & 0xFF) << 8) + (data[headerLength - 1] & 0xFF);
+		int flags = data.get(pos + headerLength - 3);
+		dup = ((flags & 0x80) >> 7 != 0);
+		qos = (flags & 0x60) >> 5;
+		if(qos == 3) qos = -1;
+		topicIdType = (flags & 0x03);
+		msgId   = ((data.get(pos + headerLength - 2) & 0xFF) << 8) + (data.get(pos + headerLength - 1) & 0xFF);
 		
 		int topicLength = length - headerLength;
-		byteTopicId = new byte[topicLength];
-
-		try {
-			switch (topicIdType){
-				case MqttsMessage.TOPIC_NAME:
-					System.arraycopy(data, headerLength, byteTopicId, 0, topicLength);
-					topicName = new String(byteTopicId,Utils.STRING_ENCODING);
-					break;
-					
-				case MqttsMessage.PREDIFINED_TOPIC_ID:
-					if(length != 2){
-						throw new MqttsException("Wrong format. Predefined topic id must be 2 bytes long.");
-					}
-					byteTopicId[0] = data[headerLength];
-					byteTopicId[1] = data[headerLength + 1];
-					predefinedTopicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
-					break;
-				case MqttsMessage.SHORT_TOPIC_NAME:
-					if(topicLength != 2)
-						throw new MqttsException("Wrong format. Short topic name must be 2 bytes long.");
-					System.arraycopy(data, headerLength, byteTopicId, 0, byteTopicId.length);
-					shortTopicName = new String(byteTopicId,Utils.STRING_ENCODING);
-					break;
+		byteTopicId = Utils.SliceByteBuffer(data, pos + headerLength, topicLength);
+
+		switch (topicIdType){
+			case MqttsMessage.TOPIC_NAME:
+				topicName = Utils.decodeString(data, pos + headerLength, topicLength);
+				break;
 				
-				default:
-					throw new MqttsException("Unknown topic id type: " + topicIdType);
-			}
-		
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
+			case MqttsMessage.PREDIFINED_TOPIC_ID:
+				if(topicLength != 2){
+					throw new MqttsException("Wrong format. Predefined topic id must be 2 bytes long.");
+				}
+				predefinedTopicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
+				break;
+			case MqttsMessage.SHORT_TOPIC_NAME:
+				if(topicLength != 2)
+					throw new MqttsException("Wrong format. Short topic name must be 2 bytes long.");
+				shortTopicName = Utils.decodeString(data, pos + headerLength, topicLength);
+				break;
+			
+			default:
+				throw new MqttsException("Unknown topic id type: " + topicIdType);
 		}
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the SUBSCRIBE message as it should appear on the wire.
-	 * (Don't needed in the GW)
-	 */	
-	public byte[] toBytes(){
+	 * @return The length of the SUBSCRIBE message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return frameLength(4 + getTopicLength());
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the SUBSCRIBE message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
 		int flags = 0;
 		if(dup) {
 			flags |= 0x80;
-		}		
-		if(qos == -1) {
-			flags |= 0x60; //TODO check if this is right
-		} else if(qos == 0) {
-		
-		} else if(qos == 1) {
-			flags |= 0x20;
-		} else if(qos == 2) {
-			flags |= 0x40;
-		} else {
-			throw new IllegalArgumentException("Unknown QoS value: " + qos);
 		}
-		if(topicIdType == MqttsMessage.TOPIC_NAME){
-			byteTopicId = new byte[topicName.length()];
-			System.arraycopy(topicName.getBytes(), 0, byteTopicId, 0, byteTopicId.length);
-		}else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
+		flags |= qosFlags(qos); //TODO check if this is right for -1
+		if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
 			flags |= 0x01;
-			byteTopicId = new byte[2];
-			byteTopicId [0] = (byte)((predefinedTopicId >> 8) & 0xFF);
-			byteTopicId [1] = (byte) (predefinedTopicId & 0xFF);
 		}else if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME){
 			flags |= 0x02;
-			byteTopicId = new byte[2];
-			System.arraycopy(shortTopicName.getBytes(), 0, byteTopicId, 0, byteTopicId.length);
-		}else {
+		}else if (topicIdType != MqttsMessage.TOPIC_NAME){
 			throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
 		}
 
-		int headerLength = byteTopicId.length + 5 > 255 ? 7 : 5;
-		int length = headerLength + byteTopicId.length;
-		byte[] data = setLength(new byte[length], length);
-		data[headerLength - 4] = (byte)msgType;
-		data[headerLength - 3] = (byte)flags;
-		data[headerLength - 2] = (byte)((msgId >> 8) & 0xFF);
-		data[headerLength - 1] = (byte) (msgId & 0xFF);
-		System.arraycopy(byteTopicId, 0, data, headerLength, byteTopicId.length);
-		return data;		
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		buffer.put((byte) flags);
+		buffer.putShort((short) msgId);
+		putTopic(buffer);
 	}
 
 	public boolean isDup() {
@@ -177,6 +167,7 @@ public class MqttsSubscribe extends MqttsMessage {
 
 	public void setTopicName(String topicName) {
 		this.topicName = topicName;
+		this.encodedTopicName = null;
 	}
 
 	public int getTopicIdType() {
@@ -210,4 +201,25 @@ public class MqttsSubscribe extends MqttsMessage {
 	public void setShortTopicName(String shortTopicName) {
 		this.shortTopicName = shortTopicName;
 	}
+
+	private byte[] getEncodedTopicName() {
+		if (encodedTopicName == null) {
+			encodedTopicName = TopicCache.encode(topicName);
+		}
+		return encodedTopicName;
+	}
+
+	private int getTopicLength() {
+		return topicIdType == MqttsMessage.TOPIC_NAME ? getEncodedTopicName().length : 2;
+	}
+
+	private void putTopic(ByteBuffer buffer) {
+		if (topicIdType == MqttsMessage.TOPIC_NAME) {
+			buffer.put(getEncodedTopicName());
+		} else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID) {
+			buffer.putShort((short) predefinedTopicId);
+		} else {
+			putShortTopicName(buffer, shortTopicName);
+		}
+	}
 }
\ No newline at end of file
@@ -16,9 +16,10 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.utils.TopicCache;
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
 /**
@@ -37,6 +38,8 @@ public class MqttsUnsubscribe extends MqttsMessage {
 	//The form of TopicName(or TopicID) that depends on TopicIdType.
 	//Maybe either an int or a String.
 	private String topicName = "";
+	//topicName as sent on the wire, encoded on first use
+	private byte[] encodedTopicName;
 	private int predefinedTopicId = 0;
 	private String shortTopicName = "";
 	
@@ -54,83 +57,79 @@ public class MqttsUnsubscribe extends MqttsMessage {
 	 * @throws MqttsException 
 	 */
 	public MqttsUnsubscribe(byte[] data) throws MqttsException {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsUnsubscribe constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts UNSUBSCRIBE message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the UNSUBSCRIBE message.
+	 */
+	public MqttsUnsubscribe(ByteBuffer data) throws MqttsException {
+		int pos = data.position();
 		int length = getLength(data);
-		int headerLength = data[0] == 0x01 ? 7 : 5;
+		int headerLength = data.get(pos) == 0x01 ? 7 : 5;
 		msgType = MqttsMessage.UNSUBSCRIBE;
-		dup = ((data[headerLength - 3] & 0x80) >> 7 != 0);
-		topicIdType = (data[headerLength - 3] & 0x03);
-		msgId   = ((data[headerLength - 2] & 0xFF) << 8) + (data[headerLength - 1] & 0xFF);
-
+		int flags = data.get(pos + headerLength - 3);
+		dup = ((flags & 0x80) >> 7 != 0);
+		topicIdType = (flags & 0x03);
+		msgId   = ((data.get(pos + headerLength - 2) & 0xFF) << 8) + (data.get(pos + headerLength - 1) & 0xFF);
+		
 		int topicLength = length - headerLength;
-		byteTopicId = new byte[topicLength];
-
-		try {
-			switch (topicIdType){
-				case MqttsMessage.TOPIC_NAME:
-					System.arraycopy(data, headerLength, byteTopicId, 0, topicLength);
-					topicName = new String(byteTopicId,Utils.STRING_ENCODING);
-					break;
-
-				case MqttsMessage.PREDIFINED_TOPIC_ID:
-					if(length != 2){
-						throw new MqttsException("Wrong format. Predefined topic id must be 2 bytes long.");
-					}
-					byteTopicId[0] = data[headerLength];
-					byteTopicId[1] = data[headerLength + 1];
-					predefinedTopicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
-					break;
-				case MqttsMessage.SHORT_TOPIC_NAME:
-					if(topicLength != 2)
-						throw new MqttsException("Wrong format. Short topic name must be 2 bytes long.");
-					System.arraycopy(data, headerLength, byteTopicId, 0, byteTopicId.length);
-					shortTopicName = new String(byteTopicId,Utils.STRING_ENCODING);
-					break;
-
-				default:
-					throw new MqttsException("Unknown topic id type: " + topicIdType);
-			}
-
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
+		byteTopicId = Utils.SliceByteBuffer(data, pos + headerLength, topicLength);
+
+		switch (topicIdType){
+			case MqttsMessage.TOPIC_NAME:
+				topicName = Utils.decodeString(data, pos + headerLength, topicLength);
+				break;
+				
+			case MqttsMessage.PREDIFINED_TOPIC_ID:
+				if(topicLength != 2){
+					throw new MqttsException("Wrong format. Predefined topic id must be 2 bytes long.");
+				}
+				predefinedTopicId = ((byteTopicId[0] & 0xFF) << 8) + (byteTopicId[1] & 0xFF);
+				break;
+			case MqttsMessage.SHORT_TOPIC_NAME:
+				if(topicLength != 2)
+					throw new MqttsException("Wrong format. Short topic name must be 2 bytes long.");
+				shortTopicName = Utils.decodeString(data, pos + headerLength, topicLength);
+				break;
+			
+			default:
+				throw new MqttsException("Unknown topic id type: " + topicIdType);
 		}
 	}
 
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the UNSUBSCRIBE message as it should appear on the wire.
-	 * (Don't needed in the GW)
-	 */	
-	public byte[] toBytes(){
+	 * @return The length of the UNSUBSCRIBE message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return frameLength(4 + getTopicLength());
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the UNSUBSCRIBE message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
 		int flags = 0;
 		if(dup) {
 			flags |= 0x80;
 		}
-
-		if(topicIdType == MqttsMessage.TOPIC_NAME){
-			byteTopicId = new byte[topicName.length()];
-			System.arraycopy(topicName.getBytes(), 0, byteTopicId, 0, byteTopicId.length);
-		}else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
+		if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID){
 			flags |= 0x01;
-			byteTopicId = new byte[2];
-			byteTopicId [0] = (byte)((predefinedTopicId >> 8) & 0xFF);
-			byteTopicId [1] = (byte) (predefinedTopicId & 0xFF);
 		}else if (topicIdType == MqttsMessage.SHORT_TOPIC_NAME){
 			flags |= 0x02;
-			byteTopicId = new byte[2];
-			System.arraycopy(shortTopicName.getBytes(), 0, byteTopicId, 0, byteTopicId.length);
-		}else {
+		}else if (topicIdType != MqttsMessage.TOPIC_NAME){
 			throw new IllegalArgumentException("Unknown topic id type: " + topicIdType);
 		}
 
-		int headerLength = byteTopicId.length + 5 > 255 ? 7 : 5;
-		int length = headerLength + byteTopicId.length;
-		byte[] data = setLength(new byte[length], length);
-		data[headerLength - 4] = (byte)msgType;
-		data[headerLength - 3] = (byte)flags;
-		data[headerLength - 2] = (byte)((msgId >> 8) & 0xFF);
-		data[headerLength - 1] = (byte) (msgId & 0xFF);
-		System.arraycopy(byteTopicId, 0, data, headerLength, byteTopicId.length);
-		return data;
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		buffer.put((byte) flags);
+		buffer.putShort((short) msgId);
+		putTopic(buffer);
 	}
 	
 	
@@ -172,6 +171,7 @@ public class MqttsUnsubscribe extends MqttsMessage {
 
 	public void setTopicName(String topicName) {
 		this.topicName = topicName;
+		this.encodedTopicName = null;
 	}
 
 	public int getPredefinedTopicId() {
@@ -189,4 +189,25 @@ public class MqttsUnsubscribe extends MqttsMessage {
 	public void setShortTopicName(String shortTopicName) {
 		this.shortTopicName = shortTopicName;
 	}
+
+	private byte[] getEncodedTopicName() {
+		if (encodedTopicName == null) {
+			encodedTopicName = TopicCache.encode(topicName);
+		}
+		return encodedTopicName;
+	}
+
+	private int getTopicLength() {
+		return topicIdType == MqttsMessage.TOPIC_NAME ? getEncodedTopicName().length : 2;
+	}
+
+	private void putTopic(ByteBuffer buffer) {
+		if (topicIdType == MqttsMessage.TOPIC_NAME) {
+			buffer.put(getEncodedTopicName());
+		} else if (topicIdType == MqttsMessage.PREDIFINED_TOPIC_ID) {
+			buffer.putShort((short) predefinedTopicId);
+		} else {
+			putShortTopicName(buffer, shortTopicName);
+		}
+	}
 }
\ No newline at end of file
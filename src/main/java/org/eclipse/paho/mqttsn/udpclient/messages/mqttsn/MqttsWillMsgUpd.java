@@ -16,7 +16,7 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
@@ -30,6 +30,8 @@ public class MqttsWillMsgUpd extends MqttsMessage {
 	
 	//Mqtts WILLMSGUPD message
 	private String willMsg;
+	//willMsg as sent on the wire, encoded on first use
+	private byte[] encodedWillMsg;
 	
 	/**
 	 * MqttsWillMsgUpd constructor.Sets the appropriate message type. 
@@ -44,27 +46,38 @@ public class MqttsWillMsgUpd extends MqttsMessage {
 	 * @param data: The buffer that contains the WILLMSGUPD message.
 	 */
 	public MqttsWillMsgUpd(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsWillMsgUpd constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts WILLMSGUPD message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the WILLMSGUPD message.
+	 */
+	public MqttsWillMsgUpd(ByteBuffer data) {
+		int pos = data.position();
 		int length = getLength(data);
-		int headerLength = data[0] == 0x01 ? 4 : 2;
+		int headerLength = data.get(pos) == 0x01 ? 4 : 2;
 		msgType = MqttsMessage.WILLMSGUPD;
-		try {
-			willMsg = new String(data, headerLength, length - headerLength, Utils.STRING_ENCODING);
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
+		willMsg = Utils.decodeString(data, pos + headerLength, length - headerLength);
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the WILLMSGRUPD message as it should appear on the wire.
+	 * @return The length of the WILLMSGUPD message as it appears on the wire.
 	 */
-	public byte[] toBytes(){
-		int headerLength = willMsg.length() + 2 > 255 ? 4 : 2;
-		int length = willMsg.length() + headerLength;
-		byte[] data = setLength(new byte[length], length);
-		data[headerLength - 1] = (byte)msgType;
-		System.arraycopy(willMsg.getBytes(), 0, data, headerLength, willMsg.length());
-		return data;
+	public int encodedLength() {
+		return frameLength(1 + getEncodedWillMsg().length);
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the WILLMSGUPD message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		buffer.put(getEncodedWillMsg());
 	}
 
 	public String getWillMsg() {
@@ -73,5 +86,13 @@ public class MqttsWillMsgUpd extends MqttsMessage {
 
 	public void setWillMsg(String willMsg) {
 		this.willMsg = willMsg;
+		this.encodedWillMsg = null;
+	}
+
+	private byte[] getEncodedWillMsg() {
+		if (encodedWillMsg == null) {
+			encodedWillMsg = Utils.encodeString(willMsg);
+		}
+		return encodedWillMsg;
 	}
 }
\ No newline at end of file
@@ -16,8 +16,9 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
+import org.eclipse.paho.mqttsn.udpclient.utils.TopicCache;
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
 /**
@@ -31,6 +32,8 @@ public class MqttsWillTopic extends MqttsMessage {
 	private int qos;
 	private boolean retain = false;
 	private String willTopic ="";
+	//willTopic as sent on the wire, encoded on first use
+	private byte[] encodedWillTopic;
 	
 	/**
 	 * MqttsWillTopic constructor.Sets the appropriate message type. 
@@ -45,49 +48,47 @@ public class MqttsWillTopic extends MqttsMessage {
 	 * @param data: The buffer that contains the WILLTOPIC message.
 	 */
 	public MqttsWillTopic(byte[] data) {
-	  int length = getLength(data);
-	  int headerLength = data[0] == 0x01 ? 5 : 3;
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsWillTopic constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts WILLTOPIC message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the WILLTOPIC message.
+	 */
+	public MqttsWillTopic(ByteBuffer data) {
+		int pos = data.position();
+		int length = getLength(data);
+		int headerLength = data.get(pos) == 0x01 ? 5 : 3;
 		msgType = MqttsMessage.WILLTOPIC;
 		if (length > headerLength){ //non empty WILLTOPIC message
-			qos = (data[headerLength - 1] & 0x60) >> 5;
-			retain = ((data[headerLength - 1] & 0x10) >> 4 != 0);
-			try {
-				willTopic = new String(data, headerLength, length - headerLength, Utils.STRING_ENCODING);
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
-			}
+			qos = (data.get(pos + headerLength - 1) & 0x60) >> 5;
+			retain = ((data.get(pos + headerLength - 1) & 0x10) >> 4 != 0);
+			willTopic = Utils.decodeString(data, pos + headerLength, length - headerLength);
 		}
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the WILLTOPIC message as it should appear on the wire.
-	 * (Don't needed in the GW)
+	 * @return The length of the WILLTOPIC message as it appears on the wire.
 	 */
-	public byte[] toBytes(){
-		int headerLength = willTopic.length() + 3 > 255 ? 5 : 3;
-		int length = headerLength + willTopic.length();
-		byte[] data = setLength(new byte[length], length);
-		int flags = 0;
-		if(qos == -1) {
-			flags |= 0x60;
-		} else if(qos == 0) {
+	public int encodedLength() {
+		return frameLength(2 + getEncodedWillTopic().length);
+	}
 
-		} else if(qos == 1) {
-			flags |= 0x20;
-		} else if(qos == 2) {
-			flags |= 0x40;
-		} else {
-			throw new IllegalArgumentException("Unknown QoS value: " + qos);
-		}
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the WILLTOPIC message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		int flags = qosFlags(qos);
 		if(retain) {
 			flags |= 0x10;
 		}
-
-		data[headerLength - 2] = (byte)msgType;
-		data[headerLength - 1] = (byte)flags;
-		System.arraycopy(willTopic.getBytes(), 0, data, headerLength, willTopic.length());
-		return data;
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		buffer.put((byte) flags);
+		buffer.put(getEncodedWillTopic());
 	}
 
 	public int getQos() {
@@ -107,5 +108,13 @@ public class MqttsWillTopic extends MqttsMessage {
 	}
 	public void setWillTopic(String willTopic) {
 		this.willTopic = willTopic;
+		this.encodedWillTopic = null;
+	}
+
+	private byte[] getEncodedWillTopic() {
+		if (encodedWillTopic == null) {
+			encodedWillTopic = TopicCache.encode(willTopic);
+		}
+		return encodedWillTopic;
 	}
 }
\ No newline at end of file
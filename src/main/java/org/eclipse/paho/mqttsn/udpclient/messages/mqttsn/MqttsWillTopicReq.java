@@ -16,6 +16,8 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object represents a Mqtts WILLTOPICREQ message.
  * 
@@ -35,18 +37,32 @@ public class MqttsWillTopicReq extends MqttsMessage{
 	 * @param data: The buffer that contains the WILLTOPICREQ message.
 	 */
 	public MqttsWillTopicReq(byte[] data){
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsWillTopicReq constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts WILLTOPICREQ message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the WILLTOPICREQ message.
+	 */
+	public MqttsWillTopicReq(ByteBuffer data) {
 		msgType = MqttsMessage.WILLTOPICREQ;
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the WILLTOPICREQ message as it should appear on the wire.
+	 * @return The length of the WILLTOPICREQ message as it appears on the wire.
+	 */
+	public int encodedLength() {
+		return 2;
+	}
+
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the WILLTOPICREQ message as it should appear on the wire.
 	 */
-	public byte [] toBytes() {
-		int length = 2;
-		byte[] data = new byte[length];
-		data[0] = (byte)length;
-		data[1] = (byte)msgType;		
-		return data;
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put((byte) 2);
+		buffer.put((byte) msgType);
 	}
 }
\ No newline at end of file
@@ -16,8 +16,9 @@
 
 package org.eclipse.paho.mqttsn.udpclient.messages.mqttsn;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
+import org.eclipse.paho.mqttsn.udpclient.utils.TopicCache;
 import org.eclipse.paho.mqttsn.udpclient.utils.Utils;
 
 
@@ -32,6 +33,8 @@ public class MqttsWillTopicUpd extends MqttsMessage {
 	private int qos;
 	private boolean retain;
 	private String willTopic;
+	//willTopic as sent on the wire, encoded on first use
+	private byte[] encodedWillTopic;
 	
 	/**
 	 * MqttsWillTopicUpd constructor.Sets the appropriate message type. 
@@ -46,48 +49,47 @@ public class MqttsWillTopicUpd extends MqttsMessage {
 	 * @param data: The buffer that contains the WILLTOPICUPD message.
 	 */
 	public MqttsWillTopicUpd(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * MqttsWillTopicUpd constructor.Sets the appropriate message type and constructs 
+	 * a Mqtts WILLTOPICUPD message from a received buffer. The message starts at the
+	 * current position of the buffer; position and limit are not modified.
+	 * @param data: The buffer that contains the WILLTOPICUPD message.
+	 */
+	public MqttsWillTopicUpd(ByteBuffer data) {
+		int pos = data.position();
 		int length = getLength(data);
-		int headerLength = data[0] == 0x01 ? 5 : 3;
+		int headerLength = data.get(pos) == 0x01 ? 5 : 3;
 		msgType = MqttsMessage.WILLTOPICUPD;
 		if (length > headerLength){ //non empty WILLTOPIC message
-			qos = (data[headerLength - 1] & 0x60) >> 5;
-			retain = ((data[headerLength - 1] & 0x10) >> 4 != 0);
-			try {
-				willTopic = new String(data, headerLength, length - headerLength, Utils.STRING_ENCODING);
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
-			}
+			qos = (data.get(pos + headerLength - 1) & 0x60) >> 5;
+			retain = ((data.get(pos + headerLength - 1) & 0x10) >> 4 != 0);
+			willTopic = Utils.decodeString(data, pos + headerLength, length - headerLength);
 		}
 	}
 	
 	/**
-	 * Method to convert this message to a byte array for transmission.
-	 * @return A byte array containing the WILLTOPICUPD message as it should appear on the wire.
+	 * @return The length of the WILLTOPICUPD message as it appears on the wire.
 	 */
-	public byte[] toBytes(){
-		int headerLength = willTopic.length() + 3 > 255 ? 5 : 3;
-		int length = headerLength + willTopic.length();
-		byte[] data = setLength(new byte[length], length);
-		int flags = 0;
-		if(qos == -1) {
-			flags |= 0x60;
-		} else if(qos == 0) {
+	public int encodedLength() {
+		return frameLength(2 + getEncodedWillTopic().length);
+	}
 
-		} else if(qos == 1) {
-			flags |= 0x20;
-		} else if(qos == 2) {
-			flags |= 0x40;
-		} else {
-			throw new IllegalArgumentException("Unknown QoS value: " + qos);
-		}
+	/**
+	 * Method to write this message into a buffer for transmission.
+	 * @param buffer: Receives the WILLTOPICUPD message as it should appear on the wire.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		int flags = qosFlags(qos);
 		if(retain) {
 			flags |= 0x10;
 		}
-
-		data[headerLength - 2] = (byte)msgType;
-		data[headerLength - 1] = (byte)flags;
-		System.arraycopy(willTopic.getBytes(), 0, data, headerLength, willTopic.length());
-		return data;
+		putLength(buffer, encodedLength());
+		buffer.put((byte) msgType);
+		buffer.put((byte) flags);
+		buffer.put(getEncodedWillTopic());
 	}
 
 	public int getQos() {
@@ -107,5 +109,13 @@ public class MqttsWillTopicUpd extends MqttsMessage {
 	}
 	public void setWillTopic(String willTopic) {
 		this.willTopic = willTopic;
+		this.encodedWillTopic = null;
+	}
+
+	private byte[] getEncodedWillTopic() {
+		if (encodedWillTopic == null) {
+			encodedWillTopic = TopicCache.encode(willTopic);
+		}
+		return encodedWillTopic;
 	}
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import java.util.TimerTask;
 import java.util.Vector;
 
 import org.eclipse.paho.mqttsn.udpclient.messages.Message;
+import org.eclipse.paho.mqttsn.udpclient.messages.MessagePool;
 import org.eclipse.paho.mqttsn.udpclient.messages.control.ControlMessage;
 import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
 import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
@@ -30,16 +31,24 @@ import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
 @SuppressWarnings({"static-access"})
 public class TimerService {
 
+	//one timer thread for all clients, cancelled when the last client terminates
 	private static Timer timer=null;
+	private static int services;
+	private boolean terminated;
 	private MsgQueue queue;
 	private Vector<TimeoutTimerTask> timeoutTasks;
+	//messages carrying the timeouts to the client, which recycles them once handled
+	private final MessagePool messagePool = new MessagePool(8);
 
 	/**
 	 * Constructor.
 	 */
 	public TimerService(MsgQueue queue) {
-		if(timer==null) {
-			timer=new Timer();
+		synchronized (TimerService.class) {
+			if(timer==null) {
+				timer=new Timer();
+			}
+			services++;
 		}
 		this.queue = queue;	
 		timeoutTasks = new Vector<TimeoutTimerTask>();
@@ -47,7 +56,9 @@ public class TimerService {
 
 
 	public void register(int type, int timeout) {
-		ClientLogger.log(ClientLogger.INFO, "Timer "+ type +" started, duration= "+ timeout);
+		if (ClientLogger.isLoggable(ClientLogger.INFO)) {
+			ClientLogger.log(ClientLogger.INFO, "Timer "+ type +" started, duration= "+ timeout);
+		}
 		long delay = timeout * 1000;
 		long period = timeout * 1000;
 
@@ -70,7 +81,9 @@ public class TimerService {
 
 
 	public void unregister(int type) {
-		ClientLogger.log(ClientLogger.INFO, "Timer "+type+" stopped");
+		if (ClientLogger.isLoggable(ClientLogger.INFO)) {
+			ClientLogger.log(ClientLogger.INFO, "Timer "+type+" stopped");
+		}
 		for(int i = 0 ; i<timeoutTasks.size(); i++) {
 			TimeoutTimerTask timeout = (TimeoutTimerTask) timeoutTasks.get(i);
 			if (timeout.getType() == type){
@@ -92,12 +105,22 @@ public class TimerService {
 
 	public void terminate() {
 		this.unregisterAll();
-		this.timer.cancel();
+		synchronized (TimerService.class) {
+			if (!terminated) {
+				terminated = true;
+				if (--services == 0) {
+					timer.cancel();
+					timer = null;
+				}
+			}
+		}
 	}
 
 
 	public class TimeoutTimerTask extends TimerTask {
 		int type;
+		//the same for every timeout of this task, it is only read by the client
+		private final ControlMessage controlMsg = new ControlMessage();
 
 		/**
 		 * Constructor.
@@ -105,18 +128,15 @@ public class TimerService {
 		 */
 		public TimeoutTimerTask(int type) {
 			this.type = type;
+			controlMsg.setMsgType(type);
 		}
 
 		/* (non-Javadoc)
 		 * @see java.util.TimerTask#run()
 		 */
 		public void run(){
-			//create new control message
-			ControlMessage controlMsg = new ControlMessage();
-			controlMsg.setMsgType(type);
-
-			//create an "internal" message
-			Message msg = new Message();
+			//take an "internal" message from the pool
+			Message msg = messagePool.acquire();
 			msg.setType(Message.CONTROL_MSG);
 			msg.setControlMessage(controlMsg);
 
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
+
+/**
+ * The link between a client and its gateway. The default is
+ * {@link org.eclipse.paho.mqttsn.udpclient.udp.UDPInterface}; another implementation can be
+ * given to a client with {@link ClientParameters#setTransport(ClientTransport)}.
+ * A transport puts the messages it receives to the queue passed to initialize(), usually
+ * through a {@link FrameDecoder}.
+ */
+public interface ClientTransport {
+
+  /**
+   * Called once when the client starts.
+   */
+  void initialize(MsgQueue queue, ClientParameters clientParms) throws MqttsException;
+
+  /**
+   * Sends the message to the gateway. Called by the application and the client thread, possibly
+   * at the same time. The message is encoded before the method returns, so the caller may
+   * change and send it again afterwards.
+   *
+   * @return false if the message was dropped before it was sent (e.g. a full send queue)
+   */
+  boolean sendMsg(MqttsMessage msg);
+
+  /**
+   * @return true if messages are sent with a forwarder encapsulation header
+   */
+  boolean isEncapsulated();
+
+  /**
+   * @return the local port of the transport, -1 if it has none
+   */
+  int getLocalPort();
+
+  void terminate();
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.Message;
+import org.eclipse.paho.mqttsn.udpclient.messages.MessagePool;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsFrame;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegistry;
+import org.eclipse.paho.mqttsn.udpclient.utils.BufferPool;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
+
+/**
+ * Checks and decodes received mqtts frames and puts the resulting messages to the queue of
+ * the client. Shared by all transports so they validate frames the same way.
+ */
+public class FrameDecoder {
+
+  //the most messages handed to the queue at once
+  public final static int MAX_BATCH = 64;
+
+  private final MsgQueue queue;
+  private final ClientParameters clientParms;
+
+  //messages decoded since beginBatch() and not yet handed to the queue
+  private final Object[] batch = new Object[MAX_BATCH];
+  private int batchCount;
+  private boolean batching;
+
+  private final MessagePool messagePool = new MessagePool(MAX_BATCH);
+
+  public FrameDecoder(MsgQueue queue, ClientParameters clientParms) {
+    this.queue = queue;
+    this.clientParms = clientParms;
+  }
+
+  /**
+   * Collects the messages decoded from now on until {@link #flush()} and hands them to the
+   * queue together, so the client is woken up once for all of them. Only for a transport with
+   * a single read thread, which must call both methods.
+   */
+  public void beginBatch() {
+    batching = true;
+  }
+
+  /**
+   * Hands the messages collected since {@link #beginBatch()} to the queue and ends the batch.
+   */
+  public void flush() {
+    batching = false;
+    if (batchCount > 0) {
+      int count = batchCount;
+      batchCount = 0;
+      queue.addAllLast(batch, count);
+      for (int i = 0; i < count; i++) {
+        batch[i] = null;
+      }
+    }
+  }
+
+  public void decode(byte[] data) {
+    //do some checks for the received packet
+    if (data == null) {
+      ClientLogger.log(ClientLogger.WARN,
+          "FrameDecoder - The received data packet is null. The packet cannot be processed.");
+      return;
+    }
+    decode(ByteBuffer.wrap(data), null);
+  }
+
+  /**
+   * Decodes the mqtts message between position and limit of the buffer and puts it to the queue.
+   *
+   * @param pool if not null, the buffer belongs to this pool and PUBLISH payloads are not copied
+   * @return true if the queued message still refers to the buffer; the client then releases it
+   */
+  public boolean decode(ByteBuffer data, BufferPool pool) {
+    int length = data.remaining();
+
+    if (length < clientParms.getMinMqttsLength() || length < 2) {
+      ClientLogger.log(ClientLogger.WARN,
+          "FrameDecoder - Not a valid Mqtts message. The received data packet is too short (length = "
+              + length + "). The packet cannot be processed.");
+      return false;
+    }
+
+    if (length > clientParms.getMaxMqttsLength()) {
+      ClientLogger.log(ClientLogger.WARN,
+          "FrameDecoder - Not a valid Mqtts message. The received data packet is too long (length = "
+              + length + "). The packet cannot be processed.");
+      return false;
+
+    }
+
+    int pos = data.position();
+    if (data.get(pos) == 0x01 && length < 4) {
+      ClientLogger.log(ClientLogger.WARN,
+          "FrameDecoder - Not a valid Mqtts message. The received data packet is too short (length = "
+              + length + "). The packet cannot be processed.");
+      return false;
+    }
+
+    if (MqttsMessage.getLength(data) < clientParms.getMinMqttsLength()) {
+      ClientLogger.log(ClientLogger.WARN,
+          "FrameDecoder - Not a valid Mqtts message. Field \"Length\" (" + (MqttsMessage.getLength(data))
+              + ") in the received data packet is less than " + clientParms.getMinMqttsLength()
+              + " . The packet cannot be processed.");
+      return false;
+    }
+
+    if (MqttsMessage.getLength(data) != length) {
+      ClientLogger.log(ClientLogger.WARN,
+          "FrameDecoder - Not a valid Mqtts message. Field \"Length\" in the received data packet does not match the actual length of the packet. The packet cannot be processed. "
+              + data.get(pos) + ", " + length);
+      return false;
+    }
+
+    int headerLength = data.get(pos) == 1 ? 3 : 1;
+    int msgType = data.get(pos + headerLength) & 0xFF;
+    if (isShed(data, pos + headerLength, msgType)) {
+      queue.recordShed(msgType);
+      return false;
+    }
+
+    if (!MqttsRegistry.isReceivable(msgType)) {
+      ClientLogger.log(ClientLogger.WARN,
+          "FrameDecoder - Mqtts message of unknown or unexpected type \"" + msgType
+              + "\" received. The packet cannot be processed.");
+      return false;
+    }
+    if (!MqttsFrame.isValidLength(msgType, length - headerLength - 1)) {
+      ClientLogger.log(ClientLogger.WARN, "FrameDecoder - Not a valid Mqtts message of type \""
+          + msgType + "\". Wrong packet length (length = " + length
+          + "). The packet cannot be processed.");
+      return false;
+    }
+
+    //short messages that only carry numbers are copied into a pooled message as they are; the
+    //client reads their fields through a flyweight view, so nothing is allocated for them
+    if (MqttsRegistry.isFlyweight(msgType)) {
+      Message msg = messagePool.acquire();
+      msg.setType(Message.MQTTS_FRAME);
+      msg.setFrame(data, pos, length);
+      enqueue(msg);
+      return false;
+    }
+
+    boolean keepsBuffer = pool != null && msgType == MqttsMessage.PUBLISH;
+    MqttsMessage mqttsMsg = MqttsRegistry.getDecoder(msgType).decode(data, !keepsBuffer);
+
+    //put the message to the queue
+    Message msg = new Message();
+    msg.setType(Message.MQTTS_MSG);
+    msg.setMqttsMessage(mqttsMsg);
+    if (keepsBuffer) {
+      msg.setBuffer(data, pool);
+    }
+    enqueue(msg);
+    ClientLogger
+        .log(ClientLogger.INFO, "FrameDecoder - Mqtts message \"" + msgType + "\" put in queue.");
+    return keepsBuffer;
+  }
+
+  private void enqueue(Message msg) {
+    if (batching) {
+      batch[batchCount++] = msg;
+      if (batchCount == batch.length) {
+        flush();
+        batching = true;
+      }
+    } else {
+      this.queue.addLast(msg);
+    }
+  }
+
+  /**
+   * The shedding policy of the queue: from three quarters of its shedding threshold on, QoS 0/-1
+   * PUBLISH and gateway discovery messages are dropped; at the threshold, messages the gateway
+   * retransmits are dropped too. Responses to our own requests are never dropped, they are
+   * limited by the number of requests we have outstanding.
+   *
+   * @param typeIndex position of the MsgType field
+   * @return true if the message must be dropped without decoding it
+   */
+  private boolean isShed(ByteBuffer data, int typeIndex, int msgType) {
+    int threshold = queue.getShedThreshold();
+    if (threshold <= 0) {
+      return false;
+    }
+    int size = queue.size() + batchCount;
+    if (size < threshold - threshold / 4) {
+      return false;
+    }
+    switch (msgType) {
+      case MqttsMessage.PUBLISH:
+        if (typeIndex + 1 >= data.limit()) {
+          return false;
+        }
+        int qos = (data.get(typeIndex + 1) >> 5) & 0x03;
+        if (qos == 0 || qos == 3) {
+          return true;
+        }
+        return size >= threshold;
+
+      case MqttsMessage.ADVERTISE:
+      case MqttsMessage.SEARCHGW:
+      case MqttsMessage.GWINFO:
+        return true;
+
+      case MqttsMessage.REGISTER:
+      case MqttsMessage.PINGREQ:
+        return size >= threshold;
+
+      default:
+        return false;
+    }
+  }
+}
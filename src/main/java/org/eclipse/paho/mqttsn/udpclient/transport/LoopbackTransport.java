@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
+
+/**
+ * An in-memory transport: encoded frames are handed directly to a {@link Peer} in the same JVM,
+ * typically a fake gateway, and the peer answers with {@link #deliver(ByteBuffer)}. No socket
+ * and no thread is involved, which makes it possible to measure the client without the cost of
+ * the network stack and to run many clients on one machine.
+ */
+public class LoopbackTransport implements ClientTransport {
+
+  private final static int MAX_FRAME_SIZE = 65536;
+
+  //frames are encoded into this buffer, one per sending thread
+  private final static ThreadLocal<ByteBuffer> SEND_BUFFER = new ThreadLocal<ByteBuffer>() {
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(MAX_FRAME_SIZE);
+    }
+  };
+
+  //messages of the peer are encoded into this one, so that a peer answering from within
+  //frameReceived() does not overwrite the frame it was given
+  private final static ThreadLocal<ByteBuffer> DELIVER_BUFFER = new ThreadLocal<ByteBuffer>() {
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(MAX_FRAME_SIZE);
+    }
+  };
+
+  /**
+   * The other end of a loopback transport.
+   */
+  public interface Peer {
+
+    /**
+     * Called on the sending thread for every frame the client sends.
+     *
+     * @param frame the encoded mqtts message between position and limit; only valid during
+     *              the call
+     */
+    void frameReceived(LoopbackTransport transport, ByteBuffer frame);
+  }
+
+  private final Peer peer;
+  private FrameDecoder decoder;
+  private volatile boolean running;
+
+  public LoopbackTransport(Peer peer) {
+    if (peer == null) {
+      throw new IllegalArgumentException("A loopback transport needs a peer");
+    }
+    this.peer = peer;
+  }
+
+  public void initialize(MsgQueue queue, ClientParameters clientParms) throws MqttsException {
+    this.decoder = new FrameDecoder(queue, clientParms);
+    this.running = true;
+  }
+
+  public boolean sendMsg(MqttsMessage msg) {
+    if (!running) {
+      return false;
+    }
+    ByteBuffer frame = SEND_BUFFER.get();
+    frame.clear();
+    try {
+      msg.encodeTo(frame);
+    } catch (BufferOverflowException e) {
+      ClientLogger.log(ClientLogger.ERROR, "LoopbackTransport - Message too long: "
+          + msg.encodedLength() + " bytes.");
+      return false;
+    }
+    frame.flip();
+    peer.frameReceived(this, frame);
+    return true;
+  }
+
+  /**
+   * Hands a frame from the peer to the client. The frame is decoded before this method returns,
+   * so the buffer can be reused afterwards.
+   */
+  public void deliver(ByteBuffer frame) {
+    if (running) {
+      decoder.decode(frame, null);
+    }
+  }
+
+  /**
+   * Hands a message from the peer to the client.
+   */
+  public void deliver(MqttsMessage msg) {
+    ByteBuffer frame = DELIVER_BUFFER.get();
+    frame.clear();
+    msg.encodeTo(frame);
+    frame.flip();
+    deliver(frame);
+  }
+
+  public boolean isEncapsulated() {
+    return false;
+  }
+
+  public int getLocalPort() {
+    return -1;
+  }
+
+  public void terminate() {
+    this.running = false;
+  }
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A single producer, single consumer ring of frames in a memory mapped file, shared by two
+ * processes. The file starts with the write index and the read index (on separate cache lines),
+ * followed by the frames, each prefixed with its length and aligned to 4 bytes. A frame that
+ * does not fit before the end of the ring is preceded by a padding marker and starts at the
+ * beginning.
+ * <p>
+ * The indices are published with release stores after the frame data was written, and read
+ * with acquire loads before the frame data is read (see {@link RingIndex}).
+ */
+class MappedRing {
+
+  private final static int WRITE_INDEX = 0;
+  private final static int READ_INDEX = 64;
+  private final static int DATA = 128;
+  private final static int PADDING = -1;
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer buffer;
+  private final RingIndex indices;
+  private final int capacity;
+  private final int mask;
+
+  //producer side: view for writing frames, the index the claimed frame is committed at
+  private final ByteBuffer writeView;
+  private long pendingWrite;
+
+  //consumer side: view for reading frames, the index after the frame being read
+  private final ByteBuffer readView;
+  private long pendingRead = -1;
+
+  private MappedRing(RandomAccessFile file, MappedByteBuffer buffer, int capacity) {
+    this.file = file;
+    this.buffer = buffer;
+    this.indices = new RingIndex(buffer);
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.writeView = buffer.duplicate();
+    this.readView = buffer.duplicate();
+  }
+
+  /**
+   * Creates (or empties) the ring file.
+   *
+   * @param capacity bytes for frames, rounded up to a power of two
+   */
+  static MappedRing create(File path, int capacity) throws IOException {
+    int size = Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1;
+    if (size <= 0) {
+      throw new IllegalArgumentException("Ring capacity too large: " + capacity);
+    }
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    file.setLength(0);
+    file.setLength(DATA + size);
+    return map(file, size);
+  }
+
+  /**
+   * Opens a ring file created by the other side.
+   */
+  static MappedRing attach(File path) throws IOException {
+    if (!path.isFile()) {
+      throw new IOException("Ring file does not exist: " + path);
+    }
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    long size = file.length() - DATA;
+    if (size <= 0 || Long.bitCount(size) != 1 || size > Integer.MAX_VALUE) {
+      file.close();
+      throw new IOException("Not a ring file: " + path);
+    }
+    return map(file, (int) size);
+  }
+
+  /**
+   * @throws UnsupportedOperationException if the JVM gives no ordered access to the mapping
+   * (see {@link RingIndex})
+   */
+  private static MappedRing map(RandomAccessFile file, int size) throws IOException {
+    try {
+      MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA + size);
+      return new MappedRing(file, buffer, size);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    } catch (RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reserves room for a frame. The frame is written into the returned buffer (between its
+   * position and limit) and becomes visible to the consumer with {@link #commit()}.
+   *
+   * @return null if the ring has not enough free space
+   */
+  ByteBuffer claim(int length) {
+    int record = align(4 + length);
+    long write = indices.getAcquire(WRITE_INDEX);
+    int offset = (int) (write & mask);
+    int toEnd = capacity - offset;
+    int needed = record > toEnd ? toEnd + record : record;
+    long read = indices.getAcquire(READ_INDEX);
+    if (record > capacity || write + needed - read > capacity) {
+      return null;
+    }
+    if (record > toEnd) {
+      buffer.putInt(DATA + offset, PADDING);
+      write += toEnd;
+      offset = 0;
+    }
+    buffer.putInt(DATA + offset, length);
+    pendingWrite = write + record;
+    writeView.limit(DATA + offset + 4 + length).position(DATA + offset + 4);
+    return writeView;
+  }
+
+  void commit() {
+    indices.setRelease(WRITE_INDEX, pendingWrite);
+  }
+
+  /**
+   * @return the next frame between position and limit, valid until {@link #release()};
+   * null if the ring is empty
+   */
+  ByteBuffer poll() {
+    long read = indices.getAcquire(READ_INDEX);
+    long write = indices.getAcquire(WRITE_INDEX);
+    if (read == write) {
+      return null;
+    }
+    int offset = (int) (read & mask);
+    int length = buffer.getInt(DATA + offset);
+    if (length == PADDING) {
+      read += capacity - offset;
+      offset = 0;
+      length = buffer.getInt(DATA);
+    }
+    pendingRead = read + align(4 + length);
+    readView.limit(DATA + offset + 4 + length).position(DATA + offset + 4);
+    return readView;
+  }
+
+  /**
+   * Gives the space of the frame returned by the last poll() back to the producer.
+   */
+  void release() {
+    if (pendingRead >= 0) {
+      indices.setRelease(READ_INDEX, pendingRead);
+      pendingRead = -1;
+    }
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  void close() {
+    try {
+      file.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static int align(int length) {
+    return (length + 3) & ~3;
+  }
+}
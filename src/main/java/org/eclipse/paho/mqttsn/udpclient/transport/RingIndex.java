@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Ordered access to the indices of a {@link MappedRing}, which another process reads and writes
+ * through its own mapping: a release store publishes everything written before it, an acquire
+ * load makes everything written before the matching store visible. The indices are kept in
+ * native byte order at 8 byte aligned offsets of the buffer.
+ * <p>
+ * Java 8 has no ordered access to a buffer, so the ordered and volatile long accesses of
+ * sun.misc.Unsafe are used on the address of the mapping (found through reflection, as the
+ * class is not part of the Java 8 API); the jar contains a variant of this class for Java 21 or
+ * newer that uses a VarHandle. Where the JVM denies that access (a security manager, or a JVM
+ * without sun.misc.Unsafe), creating a ring fails with an UnsupportedOperationException that
+ * names the cause; there is no unordered fallback, as the other process could then read frames
+ * before they are complete.
+ */
+final class RingIndex {
+
+  private final static MethodHandle GET_LONG_VOLATILE;
+  private final static MethodHandle PUT_ORDERED_LONG;
+  private final static MethodHandle GET_LONG;
+  private final static long ADDRESS_OFFSET;
+  //why the handles are missing, null if they were found
+  private final static String UNAVAILABLE;
+
+  static {
+    MethodHandle getLongVolatile = null;
+    MethodHandle putOrderedLong = null;
+    MethodHandle getLong = null;
+    long addressOffset = -1;
+    String unavailable = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+          MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+      putOrderedLong = lookup.findVirtual(unsafeClass, "putOrderedLong",
+          MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+      getLong = lookup.findVirtual(unsafeClass, "getLong",
+          MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+      MethodHandle objectFieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+          MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+      addressOffset =
+          (long) objectFieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+    } catch (Throwable e) {
+      unavailable = e.toString();
+    }
+    GET_LONG_VOLATILE = getLongVolatile;
+    PUT_ORDERED_LONG = putOrderedLong;
+    GET_LONG = getLong;
+    ADDRESS_OFFSET = addressOffset;
+    UNAVAILABLE = unavailable;
+  }
+
+  //the mapping must stay reachable while its address is used
+  private final ByteBuffer buffer;
+  private final long address;
+
+  RingIndex(ByteBuffer buffer) {
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("Ring indices need a direct buffer");
+    }
+    if (UNAVAILABLE != null) {
+      throw new UnsupportedOperationException("Shared memory rings need sun.misc.Unsafe and the "
+          + "address of java.nio.Buffer on this Java version, the JVM denied access: "
+          + UNAVAILABLE + "; use Java 21 or newer");
+    }
+    this.buffer = buffer;
+    try {
+      this.address = (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+    } catch (Throwable e) {
+      throw new UnsupportedOperationException("Address of the ring not accessible: " + e);
+    }
+  }
+
+  long getAcquire(int offset) {
+    try {
+      return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address + offset);
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  void setRelease(int offset, long value) {
+    try {
+      PUT_ORDERED_LONG.invokeExact((Object) null, address + offset, value);
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
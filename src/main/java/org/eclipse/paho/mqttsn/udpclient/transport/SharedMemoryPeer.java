@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+
+/**
+ * The gateway end of a {@link SharedMemoryTransport}: a minimal reference implementation,
+ * meant for tests and as an example for gateways written in other languages. It is not thread
+ * safe; use it from one thread.
+ */
+public class SharedMemoryPeer {
+
+  private final MappedRing fromClient;
+  private final MappedRing toClient;
+
+  /**
+   * Attaches to the ring files of an initialized {@link SharedMemoryTransport}.
+   *
+   * @throws UnsupportedOperationException if this JVM gives no ordered access to the rings
+   */
+  public SharedMemoryPeer(File directory) throws IOException {
+    this.fromClient = MappedRing.attach(new File(directory, SharedMemoryTransport.TO_GATEWAY));
+    try {
+      this.toClient = MappedRing.attach(new File(directory, SharedMemoryTransport.FROM_GATEWAY));
+    } catch (IOException e) {
+      fromClient.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the next frame sent by the client, between position and limit, valid until the
+   * next call; null if there is none
+   */
+  public ByteBuffer receive() {
+    fromClient.release();
+    return fromClient.poll();
+  }
+
+  /**
+   * Sends the frame between position and limit of the buffer to the client.
+   *
+   * @return false if the ring to the client is full
+   */
+  public boolean send(ByteBuffer frame) {
+    ByteBuffer target = toClient.claim(frame.remaining());
+    if (target == null) {
+      return false;
+    }
+    target.put(frame);
+    toClient.commit();
+    return true;
+  }
+
+  /**
+   * Sends the message to the client.
+   *
+   * @return false if the ring to the client is full
+   */
+  public boolean send(MqttsMessage msg) {
+    ByteBuffer target = toClient.claim(msg.encodedLength());
+    if (target == null) {
+      return false;
+    }
+    msg.encodeTo(target);
+    toClient.commit();
+    return true;
+  }
+
+  public void close() {
+    fromClient.release();
+    fromClient.close();
+    toClient.close();
+  }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
+
+/**
+ * A transport to a gateway process on the same host through two memory mapped ring files in a
+ * directory: {@link #TO_GATEWAY} and {@link #FROM_GATEWAY}. Messages are encoded directly into
+ * the mapped memory and decoded from it, without system calls. The transport creates the ring
+ * files when it is initialized; the gateway side attaches to them afterwards, see
+ * {@link SharedMemoryPeer}.
+ */
+public class SharedMemoryTransport implements ClientTransport, Runnable {
+
+  public final static String TO_GATEWAY = "to-gateway.ring";
+  public final static String FROM_GATEWAY = "from-gateway.ring";
+
+  //polls of an empty ring before the reader yields, and then parks; no spinning on one processor
+  private final static int SPIN_POLLS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+  private final static int YIELD_POLLS = 100;
+  //the park time doubles with every empty poll up to the maximum, so an idle client wakes up
+  //about a hundred times a second and a busy one is back to spinning after the first frame
+  private final static long MIN_PARK_NANOS = 50000;
+  private final static long MAX_PARK_NANOS = 10000000;
+
+  private final File directory;
+  private final int ringCapacity;
+  private MappedRing outbound;
+  private MappedRing inbound;
+  private FrameDecoder decoder;
+  private Thread readThread;
+  private volatile boolean running;
+
+  /**
+   * @param directory where the ring files are created
+   * @param ringCapacity size of each ring in bytes, rounded up to a power of two
+   */
+  public SharedMemoryTransport(File directory, int ringCapacity) {
+    this.directory = directory;
+    this.ringCapacity = ringCapacity;
+  }
+
+  public void initialize(MsgQueue queue, ClientParameters clientParms) throws MqttsException {
+    try {
+      outbound = MappedRing.create(new File(directory, TO_GATEWAY), ringCapacity);
+      inbound = MappedRing.create(new File(directory, FROM_GATEWAY), ringCapacity);
+    } catch (IOException e) {
+      if (outbound != null) {
+        outbound.close();
+      }
+      throw new MqttsException("SharedMemoryTransport - Error creating the ring files :" + e);
+    } catch (UnsupportedOperationException e) {
+      throw new MqttsException("SharedMemoryTransport - Not supported by this JVM :"
+          + e.getMessage());
+    }
+    this.decoder = new FrameDecoder(queue, clientParms);
+    this.running = true;
+    this.readThread = new Thread(this, "SharedMemoryTransport");
+    this.readThread.setDaemon(true);
+    this.readThread.start();
+  }
+
+  public boolean sendMsg(MqttsMessage msg) {
+    //the application and the client thread may send at the same time, the ring has one producer
+    synchronized (this) {
+      if (!running) {
+        return false;
+      }
+      ByteBuffer frame = outbound.claim(msg.encodedLength());
+      if (frame == null) {
+        ClientLogger.log(ClientLogger.WARN, "SharedMemoryTransport - Ring full, Mqtts message \""
+            + msg.getMsgType() + "\" dropped.");
+        return false;
+      }
+      msg.encodeTo(frame);
+      outbound.commit();
+    }
+    return true;
+  }
+
+  public void run() {
+    int idle = 0;
+    long parkNanos = MIN_PARK_NANOS;
+    while (running) {
+      ByteBuffer frame = inbound.poll();
+      if (frame == null) {
+        idle++;
+        if (idle > SPIN_POLLS + YIELD_POLLS) {
+          LockSupport.parkNanos(parkNanos);
+          parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        } else if (idle > SPIN_POLLS) {
+          Thread.yield();
+        }
+        continue;
+      }
+      idle = 0;
+      parkNanos = MIN_PARK_NANOS;
+      //hand the frames that are already there to the client at once
+      decoder.beginBatch();
+      try {
+        int frames = 0;
+        do {
+          decodeFrame(frame);
+          frames++;
+        } while (frames < FrameDecoder.MAX_BATCH && (frame = inbound.poll()) != null);
+      } finally {
+        decoder.flush();
+      }
+    }
+  }
+
+  private void decodeFrame(ByteBuffer frame) {
+    try {
+      decoder.decode(frame, null);
+    } catch (RuntimeException e) {
+      ClientLogger.log(ClientLogger.WARN,
+          "SharedMemoryTransport - Malformed message received and ignored: " + e);
+    } finally {
+      inbound.release();
+    }
+  }
+
+  public boolean isEncapsulated() {
+    return false;
+  }
+
+  public int getLocalPort() {
+    return -1;
+  }
+
+  public void terminate() {
+    synchronized (this) {
+      this.running = false;
+    }
+    if (readThread != null) {
+      try {
+        readThread.join();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
+      outbound.close();
+      inbound.close();
+    }
+  }
+}
@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.utils.BufferPool;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+
+/**
+ * A forwarder as described in MQTT-SN 1.2: one UDP port carries the sessions of many wireless
+ * nodes. Every client initialized with this forwarder (see
+ * {@link org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters#setForwarder(UDPForwarder)})
+ * sends its messages with an encapsulation header carrying its wireless node id; received
+ * datagrams are handed to the client whose node id is in their encapsulation header.
+ * <p>
+ * One thread reads the socket. With a single worker it also decodes the messages; with more,
+ * it only reads the node id and copies the datagram to the worker owning that node id, so the
+ * messages of one session are decoded in order by one thread and different sessions are
+ * decoded in parallel, even when all datagrams come from the same gateway.
+ */
+public class UDPForwarder implements Runnable {
+
+  private final static int MAXUDPSIZE = 65536;
+  private final static int MIN_ENCAPS_LENGTH = 3; //length, 0xFE, ctrl
+  private final static int RECEIVE_BUFFERS = 16;
+  //datagrams waiting for one worker
+  private final static int WORKER_RING_BYTES = 4 * MAXUDPSIZE;
+  private final static int WORKER_MAX_PENDING = 256;
+
+  private final DatagramChannel channel;
+  private final Thread readThread;
+  private final Worker[] workers;
+  private volatile boolean running;
+
+  //only used by the read thread, when the datagram is not read into a pooled buffer
+  private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAXUDPSIZE);
+
+  //datagrams dropped because the worker they were meant for was too far behind
+  private final AtomicLong droppedFrames = new AtomicLong();
+
+  //the clients, keyed by their wireless node id; any worker may look up any session
+  private final ConcurrentHashMap<ByteBuffer, UDPInterface> sessions =
+      new ConcurrentHashMap<ByteBuffer, UDPInterface>();
+
+  /**
+   * Opens the socket and starts the read thread, which also decodes the messages.
+   *
+   * @param localPort the local UDP port, 0 for any free port
+   */
+  public UDPForwarder(int localPort) throws MqttsException {
+    this(localPort, 1);
+  }
+
+  /**
+   * Opens the socket and starts the read thread and, if there is more than one, the workers.
+   *
+   * @param localPort the local UDP port, 0 for any free port
+   * @param workers the number of threads decoding the messages
+   */
+  public UDPForwarder(int localPort, int workers) throws MqttsException {
+    if (workers < 1) {
+      throw new IllegalArgumentException("At least one worker is required");
+    }
+    try {
+      channel = DatagramChannel.open();
+      channel.bind(new InetSocketAddress(localPort));
+    } catch (IOException e) {
+      throw new MqttsException("UDPForwarder - Error opening the UDP socket :" + e);
+    }
+    this.workers = new Worker[workers];
+    for (int i = 0; i < workers; i++) {
+      this.workers[i] = new Worker(workers > 1 ? "UDPForwarder-" + i : null);
+    }
+    this.running = true;
+    for (int i = 0; i < workers; i++) {
+      this.workers[i].start();
+    }
+    this.readThread = new Thread(this, "UDPForwarder");
+    this.readThread.setDaemon(true);
+    this.readThread.start();
+  }
+
+  public int getLocalPort() {
+    return channel.socket().getLocalPort();
+  }
+
+  public int getWorkers() {
+    return workers.length;
+  }
+
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * @return the number of datagrams dropped because a worker's queue was full
+   */
+  public long getDroppedFrames() {
+    return droppedFrames.get();
+  }
+
+  /**
+   * Registers the session for received messages.
+   *
+   * @return the socket the session sends its encapsulated messages on
+   */
+  DatagramChannel attach(byte[] wirelessNodeId, UDPInterface udpInterface) throws MqttsException {
+    ByteBuffer key = ByteBuffer.wrap(wirelessNodeId.clone());
+    if (sessions.putIfAbsent(key, udpInterface) != null) {
+      throw new MqttsException(
+          "UDPForwarder - Wireless node id already in use: " + nodeIdString(key));
+    }
+    return channel;
+  }
+
+  void detach(byte[] wirelessNodeId, UDPInterface udpInterface) {
+    sessions.remove(ByteBuffer.wrap(wirelessNodeId), udpInterface);
+  }
+
+  /**
+   * Stops the threads and closes the socket. Attached clients can no longer send or receive.
+   */
+  public void terminate() {
+    this.running = false;
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    try {
+      readThread.join();
+      for (int i = 0; i < workers.length; i++) {
+        workers[i].terminate();
+      }
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Runnable#run()
+   */
+  public void run() {
+    //a single worker decodes in this thread, straight from its own pooled buffers
+    Worker inline = workers.length == 1 ? workers[0] : null;
+    while (running) {
+      ByteBuffer buffer = inline != null ? inline.bufferPool.acquire() : null;
+      BufferPool pool = buffer != null ? inline.bufferPool : null;
+      if (buffer == null) {
+        buffer = receiveBuffer;
+        buffer.clear();
+      }
+      boolean bufferHandedOver = false;
+      try {
+        if (channel.receive(buffer) == null) {
+          continue;
+        }
+        buffer.flip();
+        if (inline != null) {
+          bufferHandedOver = inline.dispatch(buffer, pool);
+        } else {
+          handOver(buffer);
+        }
+      } catch (IOException e) {
+        if (running) {
+          ClientLogger.log(ClientLogger.ERROR,
+              "UDPForwarder - An I/O error occurred while reading from the socket: " + e);
+        }
+      } catch (RuntimeException e) {
+        //a malformed datagram must not stop the read thread of all sessions
+        ClientLogger.log(ClientLogger.WARN,
+            "UDPForwarder - Malformed message received and ignored: " + e);
+      } finally {
+        if (pool != null && !bufferHandedOver) {
+          pool.release(buffer);
+        }
+      }
+    }
+  }
+
+  /**
+   * Passes the datagram to the worker owning its node id.
+   */
+  private void handOver(ByteBuffer buffer) {
+    int headerLength = encapsHeaderLength(buffer);
+    if (headerLength < 0) {
+      return;
+    }
+    int hash = 0;
+    for (int i = MIN_ENCAPS_LENGTH; i < headerLength; i++) {
+      hash = 31 * hash + buffer.get(i);
+    }
+    if (!workers[(hash & Integer.MAX_VALUE) % workers.length].enqueue(buffer)) {
+      droppedFrames.incrementAndGet();
+      ClientLogger.log(ClientLogger.WARN,
+          "UDPForwarder - Worker queue full, received datagram dropped.");
+    }
+  }
+
+  /**
+   * @return the length of the encapsulation header of the datagram, -1 if it has none
+   */
+  private static int encapsHeaderLength(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    if (length < MIN_ENCAPS_LENGTH || buffer.get(buffer.position() + 1) != (byte) 0xFE) {
+      ClientLogger.log(ClientLogger.WARN,
+          "UDPForwarder - Datagram without encapsulation header received and ignored.");
+      return -1;
+    }
+    int headerLength = buffer.get(buffer.position()) & 0xFF;
+    if (headerLength < MIN_ENCAPS_LENGTH || headerLength > length) {
+      ClientLogger.log(ClientLogger.WARN,
+          "UDPForwarder - Invalid encapsulation header length " + headerLength + ", ignored.");
+      return -1;
+    }
+    return headerLength;
+  }
+
+  private static String nodeIdString(ByteBuffer nodeId) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = nodeId.position(); i < nodeId.limit(); i++) {
+      sb.append(String.format("%02X", nodeId.get(i)));
+    }
+    return sb.toString();
+  }
+
+
+  /**
+   * Decodes the messages of the sessions whose node id hashes to it: in the read thread if it
+   * is the only worker, else in a thread of its own from the datagrams copied to its ring.
+   */
+  private class Worker implements Runnable {
+
+    //receive buffers kept by sessions with zero copy payloads, and the key to look up a node id
+    private final BufferPool bufferPool = new BufferPool(MAXUDPSIZE, RECEIVE_BUFFERS, false);
+    private final ByteBuffer probe = ByteBuffer.allocate(255);
+
+    private final Thread thread;
+
+    //datagram bytes; one view for the read thread (used under the lock) and one for the worker
+    private final ByteBuffer ringIn;
+    private final ByteBuffer ringOut;
+
+    //one slot per pending datagram
+    private final int[] offsets;
+    private final int[] lengths;
+    private int head;
+    private int count;
+    private int byteTail;
+    private boolean workerWaiting;
+
+    /**
+     * @param name the name of the worker thread, null to decode in the read thread
+     */
+    Worker(String name) {
+      if (name == null) {
+        this.thread = null;
+        this.ringIn = null;
+        this.ringOut = null;
+        this.offsets = null;
+        this.lengths = null;
+        return;
+      }
+      this.thread = new Thread(this, name);
+      this.thread.setDaemon(true);
+      this.ringIn = ByteBuffer.allocate(WORKER_RING_BYTES);
+      this.ringOut = ringIn.duplicate();
+      this.offsets = new int[WORKER_MAX_PENDING];
+      this.lengths = new int[WORKER_MAX_PENDING];
+    }
+
+    void start() {
+      if (thread != null) {
+        thread.start();
+      }
+    }
+
+    void terminate() throws InterruptedException {
+      if (thread == null) {
+        return;
+      }
+      synchronized (this) {
+        notify();
+      }
+      thread.join();
+    }
+
+    /**
+     * Copies the datagram between position and limit of the buffer into the ring.
+     *
+     * @return false if the ring is full
+     */
+    synchronized boolean enqueue(ByteBuffer datagram) {
+      int length = datagram.remaining();
+      int offset = reserve(length);
+      if (offset < 0) {
+        return false;
+      }
+      ringIn.limit(offset + length).position(offset);
+      ringIn.put(datagram);
+      int slot = (head + count) % offsets.length;
+      offsets[slot] = offset;
+      lengths[slot] = length;
+      count++;
+      byteTail = offset + length;
+      if (workerWaiting) {
+        notify();
+      }
+      return true;
+    }
+
+    /**
+     * @return the offset in the ring for a datagram of this length, -1 if it does not fit
+     */
+    private int reserve(int length) {
+      int capacity = ringIn.capacity();
+      if (count == offsets.length || length > capacity) {
+        return -1;
+      }
+      if (count == 0) {
+        return 0;
+      }
+      int byteHead = offsets[head];
+      if (byteTail > byteHead) {
+        if (capacity - byteTail >= length) {
+          return byteTail;
+        }
+        //wrap around, leaving the end of the ring unused
+        return length <= byteHead ? 0 : -1;
+      }
+      return byteHead - byteTail >= length ? byteTail : -1;
+    }
+
+    public void run() {
+      while (true) {
+        int first;
+        int n;
+        synchronized (this) {
+          while (count == 0 && running) {
+            workerWaiting = true;
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              return;
+            } finally {
+              workerWaiting = false;
+            }
+          }
+          if (count == 0) {
+            return;
+          }
+          first = head;
+          n = count;
+        }
+
+        //the slots taken are not touched by the read thread until they are released below
+        for (int i = 0; i < n; i++) {
+          int slot = (first + i) % offsets.length;
+          ringOut.limit(offsets[slot] + lengths[slot]).position(offsets[slot]);
+          try {
+            dispatch(ringOut, null);
+          } catch (RuntimeException e) {
+            ClientLogger.log(ClientLogger.WARN,
+                "UDPForwarder - Malformed message received and ignored: " + e);
+          }
+        }
+
+        synchronized (this) {
+          head = (first + n) % offsets.length;
+          count -= n;
+        }
+      }
+    }
+
+    /**
+     * Strips the encapsulation header and passes the mqtts message to the addressed session.
+     *
+     * @param pool the pool the buffer belongs to, null if the buffer is reused afterwards
+     * @return true if the session keeps the buffer
+     */
+    boolean dispatch(ByteBuffer buffer, BufferPool pool) {
+      int headerLength = encapsHeaderLength(buffer);
+      if (headerLength < 0) {
+        return false;
+      }
+
+      probe.clear();
+      for (int i = MIN_ENCAPS_LENGTH; i < headerLength; i++) {
+        probe.put(buffer.get(buffer.position() + i));
+      }
+      probe.flip();
+      UDPInterface session = sessions.get(probe);
+      if (session == null) {
+        if (ClientLogger.isLoggable(ClientLogger.INFO)) {
+          ClientLogger.log(ClientLogger.INFO,
+              "UDPForwarder - Message for unknown wireless node id " + nodeIdString(probe)
+                  + " ignored.");
+        }
+        return false;
+      }
+
+      buffer.position(buffer.position() + headerLength);
+      if (!session.getClientParameters().isZeroCopyPayload()) {
+        return session.decodeMsg(buffer, null);
+      }
+      if (pool == null && ringIn != null) {
+        //the ring is reused, so a message keeping its payload gets a pooled buffer of its own;
+        //while they are all taken the payload is copied instead
+        ByteBuffer copy = bufferPool.acquire();
+        if (copy != null) {
+          copy.put(buffer).flip();
+          if (!session.decodeMsg(copy, bufferPool)) {
+            bufferPool.release(copy);
+          }
+          return false;
+        }
+      }
+      return session.decodeMsg(buffer, pool);
+    }
+  }
+}
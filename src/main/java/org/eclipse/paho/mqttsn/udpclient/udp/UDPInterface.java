@@ -17,62 +17,79 @@
 package org.eclipse.paho.mqttsn.udpclient.udp;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
 import org.eclipse.paho.mqttsn.udpclient.messages.Message;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsAdvertise;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsConnack;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsDisconnect;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsGWInfo;
+import org.eclipse.paho.mqttsn.udpclient.messages.control.ControlMessage;
 import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingReq;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingResp;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubComp;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubRec;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubRel;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPuback;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPublish;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegack;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsRegister;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSearchGW;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsSuback;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsUnsuback;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsgReq;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillMsgResp;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopicReq;
-import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsWillTopicResp;
+import org.eclipse.paho.mqttsn.udpclient.utils.BufferPool;
 import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
 import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientThreads;
+import org.eclipse.paho.mqttsn.udpclient.transport.ClientTransport;
+import org.eclipse.paho.mqttsn.udpclient.transport.FrameDecoder;
 import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
 
 /**
  * This class implements a UDP interface
  */
-public class UDPInterface implements Runnable {
+public class UDPInterface implements ClientTransport, Runnable {
 
   private final static int MAXUDPSIZE = 65536;
   private final static int MINUDPSIZE = 16; // assumed to be a "sane" value...
-  public final static boolean ENCAPS = false;  //use forwarder encapsulation or not
+  private final static int RECEIVE_BUFFERS = 16; //zero copy mode without shedding
+  public final static boolean ENCAPS = false;  //default of ClientParameters.isEncapsulation()
+  private final static int MAX_ENCAPS_HEADER = 255;
+  private final static int PACED_DATAGRAMS = 64; //capacity of the writer of a paced client
+  //maximum time (in milliseconds) a paced client waits for space in the ring of its writer
+  private final static long PACED_ENQUEUE_WAIT = 1000;
+
+  //messages are encoded straight into this buffer, one per sending thread, so sending does not allocate
+  private final static ThreadLocal<ByteBuffer> SEND_BUFFER = new ThreadLocal<ByteBuffer>() {
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(MAX_ENCAPS_HEADER + MAXUDPSIZE);
+    }
+  };
 
-  private DatagramSocket udpSocket;
+  private DatagramChannel channel;
   private volatile boolean running;
   private Thread readThread;
+  private Selector readSelector; //the read thread waits here for datagrams
+  private UDPSelectorGroup selectorGroup;
+  private SelectionKey selectionKey;
+  private FrameDecoder decoder;
   private MsgQueue queue;
+  private boolean connected; //channel connected to the gateway
   private ClientParameters clientParms;
-  private byte[] recData;
+  private InetSocketAddress gatewaySocketAddress;
+  private ByteBuffer recBuffer;
+  private BufferPool bufferPool;
+  private UDPForwarder forwarder;
+  private UDPWriter writer;
+  private boolean ownWriter; //created for pacing, terminated with this interface
+  private long enqueueWait; //see PACED_ENQUEUE_WAIT, 0 if not paced
+  private byte[] wirelessNodeId;
+  private byte[] encapsHeader; //prefix of every datagram sent, null without encapsulation
+  //datagrams the socket did not take because its send buffer was full
+  private final AtomicLong droppedFrames = new AtomicLong();
 
 
   public void initialize(MsgQueue queue, ClientParameters clientParms) throws MqttsException {
     try {
-      //create the udp socket
-      udpSocket = new DatagramSocket();
-
-      //get the queue
       this.queue = queue;
       this.clientParms = clientParms;
+      this.decoder = new FrameDecoder(queue, clientParms);
       // set the buffer space.
       if (this.clientParms.getMaxMqttsLength() > MAXUDPSIZE) {
         throw new IllegalArgumentException("UDP only supports packet sizes up to 64KByte!");
@@ -81,27 +98,168 @@ public class UDPInterface implements Runnable {
         throw new IllegalArgumentException(
             "Maximum packet size should be larger than " + MINUDPSIZE);
       }
-      recData = new byte[this.clientParms.getMaxMqttsLength()];
+      if (this.clientParms.isZeroCopyPayload()) {
+        //received PUBLISH messages keep their buffer until the client has handled them, so
+        //there is one for every message below the shedding threshold and one being read
+        int queueCapacity = this.clientParms.getMaxInboundQueue();
+        bufferPool = new BufferPool(this.clientParms.getMaxMqttsLength(),
+            queueCapacity > 0 ? queueCapacity + 1 : RECEIVE_BUFFERS,
+            this.clientParms.isDirectReceiveBuffer());
+      }
+      //the receive buffer, in zero copy mode only used while all pooled buffers are taken
+      if (this.clientParms.isDirectReceiveBuffer()) {
+        recBuffer = ByteBuffer.allocateDirect(this.clientParms.getMaxMqttsLength());
+      } else {
+        recBuffer = ByteBuffer.allocate(this.clientParms.getMaxMqttsLength());
+      }
+      gatewaySocketAddress = new InetSocketAddress(clientParms.getGatewayAddress(),
+          clientParms.getGatewayPort());
+
+      this.writer = clientParms.getWriter();
+      if (clientParms.getSendPacer() != null || clientParms.getSharedSendPacer() != null) {
+        if (this.writer == null) {
+          //the writer thread waits for the send rate, the thread calling sendMsg() only when
+          //the ring is full
+          this.writer = new UDPWriter(4 * (MAX_ENCAPS_HEADER + clientParms.getMaxMqttsLength()),
+              PACED_DATAGRAMS);
+          this.ownWriter = true;
+        }
+        //a client sending faster than its rate fills the ring, it is slowed down to the rate
+        //instead of losing what it sends
+        this.enqueueWait = PACED_ENQUEUE_WAIT;
+      }
+      this.forwarder = clientParms.getForwarder();
+      if (this.forwarder != null) {
+        //no socket of our own: the forwarder sends and receives for us
+        initializeForwarding(clientParms.getWirelessNodeId());
+        return;
+      }
+
+      //create the udp channel
+      channel = DatagramChannel.open();
+      if (clientParms.getReceiveBufferSize() > 0) {
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, clientParms.getReceiveBufferSize());
+      }
+      if (clientParms.getSendBufferSize() > 0) {
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, clientParms.getSendBufferSize());
+      }
+      channel.bind(null);
+      if (clientParms.isConnectedChannel()) {
+        //the kernel drops datagrams from other sources and reports ICMP errors to us
+        channel.connect(gatewaySocketAddress);
+        this.connected = true;
+      }
+      if (clientParms.isEncapsulation()) {
+        //new encapsulation acc. spec 1.2, the wireless node id is our local address and port
+        byte[] ipAddr = InetAddress.getLocalHost().getAddress();
+        //byte[] ipAddr = new byte[] {127,0,0,1};
+        byte[] nodeId = new byte[ipAddr.length + 2];
+        System.arraycopy(ipAddr, 0, nodeId, 0, ipAddr.length);
+        nodeId[ipAddr.length] = (byte) ((getUdpPort() >> 8) & 0xFF);
+        nodeId[ipAddr.length + 1] = (byte) (getUdpPort() & 0xFF);
+        this.encapsHeader = createEncapsHeader(nodeId);
+      }
 
-      //create thread for reading
-      this.readThread = new Thread(this, "UDPInterface");
       this.running = true;
-      this.readThread.start();
+      //the channel is drained without blocking once a datagram has arrived
+      channel.configureBlocking(false);
+      this.selectorGroup = clientParms.getSelectorGroup();
+      if (this.selectorGroup != null) {
+        //one of the shared I/O threads reads for us
+        this.selectorGroup.register(this);
+      } else {
+        //create thread for reading, it waits on a selector of its own
+        readSelector = Selector.open();
+        channel.register(readSelector, SelectionKey.OP_READ);
+        this.readThread = ClientThreads.newThread(this, "UDPInterface",
+            clientParms.isVirtualThreads());
+        this.readThread.start();
+      }
     } catch (Exception e) {
       throw new MqttsException("UDPInterface - Error initializing :" + e);
     }
   }
 
 
+  private void initializeForwarding(byte[] nodeId) throws MqttsException {
+    if (nodeId == null || nodeId.length == 0 || nodeId.length > 255 - 3) {
+      throw new IllegalArgumentException(
+          "A wireless node id of 1 to 252 bytes is required when using a forwarder");
+    }
+    this.wirelessNodeId = nodeId.clone();
+    this.encapsHeader = createEncapsHeader(nodeId);
+    this.channel = this.forwarder.attach(this.wirelessNodeId, this);
+  }
+
+  private static byte[] createEncapsHeader(byte[] nodeId) {
+    byte[] header = new byte[nodeId.length + 3];
+    header[0] = (byte) header.length;
+    header[1] = (byte) 0xFE;
+    header[2] = 0x00; //ctrl: radius 0
+    System.arraycopy(nodeId, 0, header, 3, nodeId.length);
+    return header;
+  }
+
+  /**
+   * @return true if every message is sent with a forwarder encapsulation header
+   */
+  public boolean isEncapsulated() {
+    return encapsHeader != null;
+  }
+
+  public int getLocalPort() {
+    return getUdpPort();
+  }
+
   public int getUdpPort() {
-    return udpSocket.getLocalPort();
+    if (forwarder != null) {
+      return forwarder.getLocalPort();
+    }
+    return channel.socket().getLocalPort();
+  }
+
+  ClientParameters getClientParameters() {
+    return clientParms;
+  }
+
+  UDPWriter getWriter() {
+    return writer;
+  }
+
+  DatagramChannel getChannel() {
+    return channel;
+  }
+
+  SelectionKey getSelectionKey() {
+    return selectionKey;
   }
 
-  public void readMsg() {
-    DatagramPacket packet = new DatagramPacket(recData, 0, recData.length);
+  void setSelectionKey(SelectionKey selectionKey) {
+    this.selectionKey = selectionKey;
+  }
+
+  /**
+   * Reads and decodes one datagram. Blocks in the dedicated read thread; when the channel is
+   * serviced by a {@link UDPSelectorGroup} it returns immediately if nothing is pending.
+   * The datagram is decoded in place: only the fields of the resulting message are copied
+   * out of the receive buffer, and not even the PUBLISH payload in zero copy mode.
+   *
+   * @return true if a datagram was read
+   */
+  public boolean readMsg() {
+    //when the pool is used up the payload is copied rather than another buffer allocated
+    ByteBuffer buffer = bufferPool != null ? bufferPool.acquire() : null;
+    BufferPool pool = buffer != null ? bufferPool : null;
+    if (buffer == null) {
+      buffer = recBuffer;
+    }
+    boolean bufferHandedOver = false;
     try {
-      packet.setLength(recData.length);
-      udpSocket.receive(packet);
+      buffer.clear();
+      if (connected ? channel.read(buffer) == 0 : channel.receive(buffer) == null) {
+        return false;
+      }
+      buffer.flip();
 
       //old encapsulation
 //			byte[] data = new byte[packet.getLength()];
@@ -111,276 +269,50 @@ public class UDPInterface implements Runnable {
 //			byte[] mqttsData = new byte[data.length - clAddr.length - 2];
 //			System.arraycopy(data, clAddr.length + 2, mqttsData, 0, mqttsData.length);
 
-      //no encapsulation
-//			byte[] mqttsData = new byte[packet.getLength()];
-//			System.arraycopy(packet.getData(), packet.getOffset(), mqttsData, 0, packet.getLength());
-
-      byte[] mqttsData = null;
-      byte[] data = new byte[packet.getLength()];
-      System.arraycopy(packet.getData(), packet.getOffset(), data, 0, packet.getLength());
-      if (data[0] == (byte) 0x00) {  //old encaps v 1.1
-        byte[] clAddr = new byte[data[1]];  //data[1] contains length of clAddr (wireless node id)
-        System.arraycopy(data, 2, clAddr, 0, clAddr.length);
-        byte[] encaps = new byte[data[1] + 2];
-        System.arraycopy(data, 0, encaps, 0, encaps.length);
-        mqttsData = new byte[data.length - clAddr.length - 2];
-        System.arraycopy(data, clAddr.length + 2, mqttsData, 0, mqttsData.length);
-      } else if (ENCAPS) {
-        //new encapsulation spec v1.2
-        mqttsData = new byte[data.length - data[0]]; //data[0] contains length of encapsulation
-        System.arraycopy(data, data[0], mqttsData, 0, mqttsData.length);
-      } else {
-        mqttsData = new byte[packet.getLength()];
-        System.arraycopy(packet.getData(), packet.getOffset(), mqttsData, 0, packet.getLength());
+      //skip an encapsulation header by moving the start of the mqtts message
+      if (buffer.remaining() > 1) {
+        if (buffer.get(0) == (byte) 0x00) {  //old encaps v 1.1
+          //data[1] contains length of clAddr (wireless node id)
+          buffer.position(Math.min(buffer.limit(), (buffer.get(1) & 0xFF) + 2));
+        } else if (encapsHeader != null) {
+          //new encapsulation spec v1.2, data[0] contains length of encapsulation
+          buffer.position(Math.min(buffer.limit(), buffer.get(0) & 0xFF));
+        }
       }
 
       ClientLogger.log(ClientLogger.INFO, "UDPInterface - Packet received, decoding ...");
-      decodeMsg(mqttsData);
+      bufferHandedOver = decodeMsg(buffer, pool);
+      return true;
+    } catch (PortUnreachableException ex) {
+      gatewayUnreachable();
     } catch (IOException ex) {
       if (this.running) {
         ex.printStackTrace();
         ClientLogger.log(ClientLogger.ERROR,
             "UDPInterface - An I/O error occurred while reading from the socket.");
       }
+    } catch (RuntimeException ex) {
+      //a malformed datagram must not stop the (possibly shared) reading thread
+      ClientLogger.log(ClientLogger.WARN,
+          "UDPInterface - Malformed Mqtts message received and ignored: " + ex);
+      return true;
+    } finally {
+      if (pool != null && !bufferHandedOver) {
+        pool.release(buffer);
+      }
     }
+    return false;
   }
 
   public void decodeMsg(byte[] data) {
-    MqttsMessage mqttsMsg = null;
-
-    //do some checks for the received packet
-    if (data == null) {
-      ClientLogger.log(ClientLogger.WARN,
-          "UDPInterface - The received data packet is null. The packet cannot be processed.");
-      return;
-    }
-
-    if (data.length < clientParms.getMinMqttsLength()) {
-      ClientLogger.log(ClientLogger.WARN,
-          "UDPInterface - Not a valid Mqtts message. The received data packet is too short (length = "
-              + data.length + "). The packet cannot be processed.");
-      return;
-    }
-
-    if (data.length > clientParms.getMaxMqttsLength()) {
-      ClientLogger.log(ClientLogger.WARN,
-          "UDPInterface - Not a valid Mqtts message. The received data packet is too long (length = "
-              + data.length + "). The packet cannot be processed.");
-      return;
-
-    }
-
-    if (MqttsMessage.getLength(data) < clientParms.getMinMqttsLength()) {
-      ClientLogger.log(ClientLogger.WARN,
-          "UDPInterface - Not a valid Mqtts message. Field \"Length\" (" + (MqttsMessage.getLength(data))
-              + ") in the received data packet is less than " + clientParms.getMinMqttsLength()
-              + " . The packet cannot be processed.");
-      return;
-    }
-
-    if (MqttsMessage.getLength(data) != data.length) {
-      ClientLogger.log(ClientLogger.WARN,
-          "UDPInterface - Not a valid Mqtts message. Field \"Length\" in the received data packet does not match the actual length of the packet. The packet cannot be processed. "
-              + data[0] + ", " + data.length);
-      return;
-    }
-
-    int msgType = data[0] == 1 ? data[3] & 0xFF : data[1] & 0xFF;
-    switch (msgType) {
-      case MqttsMessage.ADVERTISE:
-        if (data.length != 5) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts ADVERTISE message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        ClientLogger.info("ADVERTISE message");
-        mqttsMsg = new MqttsAdvertise(data);
-        break;
-
-      case MqttsMessage.SEARCHGW:
-        if (data.length != 3) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts SEARCHGW message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsSearchGW(data);
-        break;
-
-      case MqttsMessage.GWINFO:
-        mqttsMsg = new MqttsGWInfo(data);
-        break;
-
-      case MqttsMessage.CONNECT:
-        //we should never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Strange ... a CONNECT was received, something must be wrong here ...");
-        break;
-
-      case MqttsMessage.CONNACK:
-        mqttsMsg = new MqttsConnack(data);
-        ClientLogger.log(ClientLogger.INFO, "UDPInterface - CONNACK received");
-        break;
-
-      case MqttsMessage.WILLTOPICREQ:
-        mqttsMsg = new MqttsWillTopicReq(data);
-        break;
-
-      case MqttsMessage.WILLTOPIC:
-        //we should never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Strange ... a WILLTOPIC was received, something must be wrong here ...");
-        break;
-
-      case MqttsMessage.WILLMSGREQ:
-        mqttsMsg = new MqttsWillMsgReq(data);
-        break;
-
-      case MqttsMessage.WILLMSG:
-        //we should never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Strange ... a WILLMSG was received, something must be wrong here ...");
-        break;
-
-      case MqttsMessage.REGISTER:
-        if (data.length < 7) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts REGISTER message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsRegister(data);
-        break;
-
-      case MqttsMessage.REGACK:
-        if (data.length != 7) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts REGACK message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsRegack(data);
-        break;
-
-      case MqttsMessage.PUBLISH:
-        if (data.length < 8) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts PUBLISH message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsPublish(data);
-        break;
-
-      case MqttsMessage.PUBACK:
-        if (data.length != 7) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts PUBACK message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsPuback(data);
-        break;
-
-      case MqttsMessage.PUBCOMP:
-        if (data.length != 4) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts PUBCOMP message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsPubComp(data);
-        break;
-
-      case MqttsMessage.PUBREC:
-        if (data.length != 4) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts PUBREC message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsPubRec(data);
-        break;
-
-      case MqttsMessage.PUBREL:
-        if (data.length != 4) {
-          ClientLogger.log(ClientLogger.WARN,
-              "UDPInterface - Not a valid Mqtts PUBREL message. Wrong packet length (length = "
-                  + data.length + "). The packet cannot be processed.");
-          return;
-        }
-        mqttsMsg = new MqttsPubRel(data);
-        break;
-
-      case MqttsMessage.SUBSCRIBE:
-        //we should never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Strange ... a SUBSCRIBE was received, something must be wrong here ...");
-        break;
-
-      case MqttsMessage.SUBACK:
-        mqttsMsg = new MqttsSuback(data);
-        break;
-
-      case MqttsMessage.UNSUBSCRIBE:
-        //we should never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Strange ... a UNSUBSCRIBE was received, something must be wrong here ...");
-        break;
-
-      case MqttsMessage.UNSUBACK:
-        mqttsMsg = new MqttsUnsuback(data);
-        break;
-
-      case MqttsMessage.PINGREQ:
-        mqttsMsg = new MqttsPingReq(data);
-        break;
-
-      case MqttsMessage.PINGRESP:
-        mqttsMsg = new MqttsPingResp(data);
-        break;
-
-      case MqttsMessage.DISCONNECT:
-        mqttsMsg = new MqttsDisconnect(data);
-        break;
-
-      case MqttsMessage.WILLTOPICUPD:
-        //we should never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Strange ... a WILLTOPICUPD was received, something must be wrong here ...");
-        break;
-
-      case MqttsMessage.WILLTOPICRESP:
-        mqttsMsg = new MqttsWillTopicResp(data);
-        break;
-
-      case MqttsMessage.WILLMSGUPD:
-        //we should never receive such a message from the gateway
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Strange ... a WILLMSGUPD was received, something must be wrong here ...");
-        break;
-
-      case MqttsMessage.WILLMSGRESP:
-        mqttsMsg = new MqttsWillMsgResp(data);
-        break;
-
-      default:
-        ClientLogger.log(ClientLogger.WARN,
-            "UDPInterface - Mqtts message of unknown type \"" + msgType + "\" received.");
-        return;
-    }
+    decoder.decode(data);
+  }
 
-    //put the message to the queue
-    Message msg = new Message();
-    msg.setType(Message.MQTTS_MSG);
-    msg.setMqttsMessage(mqttsMsg);
-    this.queue.addLast(msg);
-    ClientLogger
-        .log(ClientLogger.INFO, "UDPInterface - Mqtts message \"" + msgType + "\" put in queue.");
+  boolean decodeMsg(ByteBuffer data, BufferPool pool) {
+    return decoder.decode(data, pool);
   }
 
-  public void sendMsg(MqttsMessage msg) {
+  public boolean sendMsg(MqttsMessage msg) {
     try {
 
 //old encapsulation spec v1.1			
@@ -406,58 +338,169 @@ public class UDPInterface implements Runnable {
 //			DatagramPacket packet = new DatagramPacket(data, data.length, clientParms.getGatewayAddress(), clientParms.getGatewayPort());
 //end old encapsulation
 
-      if (ENCAPS) { //new encapsulation acc. spec 1.2
-        byte[] ipAddr = InetAddress.getLocalHost().getAddress();
-        //byte[] ipAddr = new byte[] {127,0,0,1};
-        byte[] port = new byte[2];
-        int udpPort = this.udpSocket.getLocalPort();
-        port[0] = (byte) ((udpPort >> 8) & 0xFF);
-        port[1] = (byte) (udpPort & 0xFF);
-        byte[] wirelessNodeId = new byte[ipAddr.length + port.length];
-        System.arraycopy(ipAddr, 0, wirelessNodeId, 0, ipAddr.length);
-        System.arraycopy(port, 0, wirelessNodeId, ipAddr.length, port.length);
-
-        byte[] wireMsg = msg.toBytes();
-        byte[] data = new byte[wireMsg.length + wirelessNodeId.length + 3];
-        data[0] = (byte) (wirelessNodeId.length + 3);
-        data[1] = (byte) 0xFE;
-        data[3] = 0x00;
-        System.arraycopy(wirelessNodeId, 0, data, 3, wirelessNodeId.length);
-        System.arraycopy(wireMsg, 0, data, wirelessNodeId.length + 3, wireMsg.length);
-        DatagramPacket packet = new DatagramPacket(data, data.length,
-            clientParms.getGatewayAddress(), clientParms.getGatewayPort());
-        udpSocket.send(packet);
-      } else {  //no encapsulation
-        byte[] wireMsg = msg.toBytes();
-        DatagramPacket packet = new DatagramPacket(wireMsg, wireMsg.length,
-            clientParms.getGatewayAddress(), clientParms.getGatewayPort());
-        udpSocket.send(packet);
+      ByteBuffer data = SEND_BUFFER.get();
+      data.clear();
+      if (encapsHeader != null) {
+        data.put(encapsHeader);
+      }
+      msg.encodeTo(data);
+      data.flip();
+      if (writer == null) {
+        if (!transmit(data)) {
+          ClientLogger.log(ClientLogger.WARN,
+              "UDPInterface - Socket send buffer full, Mqtts message \""
+              + msg.getMsgType() + "\" dropped.");
+          return false;
+        }
+      } else if (!writer.enqueue(this, data, enqueueWait)) {
+        ClientLogger.log(ClientLogger.WARN,
+            "UDPInterface - Send queue full, Mqtts message \"" + msg.getMsgType() + "\" dropped.");
+        return false;
       }
+      return true;
     } catch (IOException e) {
       e.printStackTrace();
       ClientLogger.log(ClientLogger.ERROR, "UDPInterface - Error while writing on the UDP socket.");
+    } catch (BufferOverflowException e) {
+      ClientLogger.log(ClientLogger.ERROR, "UDPInterface - Message too long for a UDP datagram: "
+          + msg.encodedLength() + " bytes.");
+    }
+    return false;
+  }
+
+
+  /**
+   * Waits until a datagram of this length may be sent under the send rate limits of the client;
+   * called by the {@link UDPWriter} before {@link #transmit(ByteBuffer)}.
+   */
+  void pace(int length) {
+    if (clientParms.getSendPacer() != null) {
+      clientParms.getSendPacer().acquire(length);
+    }
+    if (clientParms.getSharedSendPacer() != null) {
+      clientParms.getSharedSendPacer().acquire(length);
+    }
+  }
+
+  /**
+   * Writes one datagram to the gateway; called by the sending thread or the {@link UDPWriter}.
+   * The channel is non-blocking, it does not take the datagram when its send buffer is full;
+   * the datagram is then dropped and counted, as the network might have lost it.
+   *
+   * @return false if the datagram was dropped
+   */
+  boolean transmit(ByteBuffer data) throws IOException {
+    try {
+      int length = data.remaining();
+      int sent = connected ? channel.write(data) : channel.send(data, gatewaySocketAddress);
+      if (sent == 0 && length > 0) {
+        droppedFrames.incrementAndGet();
+        return false;
+      }
+    } catch (PortUnreachableException e) {
+      gatewayUnreachable();
     }
+    return true;
+  }
+
+  /**
+   * @return the number of datagrams dropped because the socket send buffer was full
+   */
+  public long getDroppedFrames() {
+    return droppedFrames.get();
   }
 
+  /**
+   * Tells the client that the gateway port is closed (ICMP port unreachable on the connected
+   * channel), instead of letting it wait for the ACK timeouts.
+   */
+  private void gatewayUnreachable() {
+    ClientLogger.log(ClientLogger.WARN, "UDPInterface - Gateway port unreachable.");
+    ControlMessage controlMsg = new ControlMessage();
+    controlMsg.setMsgType(ControlMessage.GW_UNREACHABLE);
+    Message msg = new Message();
+    msg.setType(Message.CONTROL_MSG);
+    msg.setControlMessage(controlMsg);
+    queue.addFirst(msg);
+  }
 
   /* (non-Javadoc)
    * @see java.lang.Runnable#run()
    */
   public void run() {
     while (running) {
-      readMsg();
+      //wait for a datagram, then take it and those that arrived meanwhile, and hand all of
+      //them to the client at once
+      try {
+        readSelector.select();
+        readSelector.selectedKeys().clear();
+      } catch (ClosedSelectorException e) {
+        break;
+      } catch (IOException e) {
+        if (this.running) {
+          ClientLogger.log(ClientLogger.ERROR, "UDPInterface - Error while selecting: " + e);
+        }
+        continue;
+      }
+      if (running) {
+        readBatch(FrameDecoder.MAX_BATCH);
+      }
+    }
+  }
+
+  /**
+   * Reads up to max datagrams pending on the non-blocking channel and hands the messages to
+   * the client as one batch. Used by the read thread and the {@link UDPSelectorGroup} thread.
+   *
+   * @return the number of datagrams read
+   */
+  int readBatch(int max) {
+    decoder.beginBatch();
+    try {
+      return readPending(max);
+    } finally {
+      decoder.flush();
+    }
+  }
+
+  private int readPending(int max) {
+    int reads = 0;
+    while (reads < max && readMsg()) {
+      reads++;
     }
+    return reads;
   }
 
   public void terminate() {
     this.running = false;
-    // close socket.
-    this.udpSocket.close();
+    if (this.ownWriter) {
+      this.writer.terminate();
+    }
+    if (this.forwarder != null) {
+      this.forwarder.detach(this.wirelessNodeId, this);
+      return;
+    }
+    if (this.selectorGroup != null) {
+      this.selectorGroup.unregister(this);
+    }
+    // close channel.
     try {
-      this.readThread.join();
-    } catch (InterruptedException e) {
+      this.channel.close();
+    } catch (IOException e) {
       e.printStackTrace();
     }
+    if (this.readThread != null) {
+      this.readSelector.wakeup();
+      try {
+        this.readThread.join();
+        //deregisters the channel, which only then releases its socket
+        this.readSelector.close();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
 
   }
 
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.udp;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.paho.mqttsn.udpclient.exceptions.MqttsException;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+
+/**
+ * A small, fixed set of I/O threads that read the UDP sockets of many clients. Each thread owns a
+ * {@link Selector}; every {@link UDPInterface} that is initialized with this group is assigned to one
+ * of them (round robin) instead of starting its own "UDPInterface" read thread. Decoded messages are
+ * still put into the queue of the owning client.
+ */
+public class UDPSelectorGroup {
+
+  //maximum number of datagrams read from one socket before the next socket gets its turn
+  private final static int MAX_READS_PER_KEY = 16;
+  //how often a client waiting for its key to be cancelled checks that the I/O thread still runs
+  private final static long CANCEL_WAIT_MS = 100;
+
+  private final SelectorLoop[] loops;
+  private final AtomicInteger next = new AtomicInteger();
+
+  public UDPSelectorGroup(int ioThreads) throws MqttsException {
+    if (ioThreads < 1) {
+      throw new IllegalArgumentException("At least one I/O thread is required");
+    }
+    loops = new SelectorLoop[ioThreads];
+    try {
+      for (int i = 0; i < ioThreads; i++) {
+        loops[i] = new SelectorLoop("UDPSelector-" + i);
+      }
+    } catch (IOException e) {
+      terminate();
+      throw new MqttsException("UDPSelectorGroup - Error opening selector :" + e);
+    }
+    for (int i = 0; i < ioThreads; i++) {
+      loops[i].start();
+    }
+  }
+
+  public int getIoThreads() {
+    return loops.length;
+  }
+
+  /**
+   * Hands the (non-blocking) channel of the interface to one of the I/O threads.
+   */
+  void register(UDPInterface udpInterface) {
+    int index = (next.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+    loops[index].register(udpInterface);
+  }
+
+  /**
+   * Removes the interface from its I/O thread. The key is cancelled on that thread, so when this
+   * method returns the thread no longer reads the socket and no longer puts messages into the
+   * queue of the client.
+   */
+  void unregister(UDPInterface udpInterface) {
+    SelectionKey key = udpInterface.getSelectionKey();
+    for (int i = 0; i < loops.length; i++) {
+      if (key == null) {
+        loops[i].pending.remove(udpInterface);
+      } else if (loops[i].selector == key.selector()) {
+        loops[i].cancel(key);
+      }
+    }
+  }
+
+  /**
+   * Stops all I/O threads. Clients still registered with this group no longer receive messages.
+   */
+  public void terminate() {
+    for (int i = 0; i < loops.length; i++) {
+      if (loops[i] != null) {
+        loops[i].terminate();
+      }
+    }
+  }
+
+
+  private static class SelectorLoop implements Runnable {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<UDPInterface> pending = new ConcurrentLinkedQueue<UDPInterface>();
+    private final ConcurrentLinkedQueue<Cancellation> cancellations =
+        new ConcurrentLinkedQueue<Cancellation>();
+    private volatile boolean running;
+
+    SelectorLoop(String name) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, name);
+      this.thread.setDaemon(true);
+    }
+
+    void start() {
+      this.running = true;
+      this.thread.start();
+    }
+
+    void register(UDPInterface udpInterface) {
+      //registration must happen on the selector thread, otherwise it blocks while select() runs
+      pending.add(udpInterface);
+      selector.wakeup();
+    }
+
+    void cancel(SelectionKey key) {
+      if (Thread.currentThread() == thread || !thread.isAlive()) {
+        key.cancel();
+        return;
+      }
+      Cancellation cancellation = new Cancellation(key);
+      cancellations.add(cancellation);
+      selector.wakeup();
+      try {
+        while (!cancellation.done.await(CANCEL_WAIT_MS, TimeUnit.MILLISECONDS)) {
+          if (!thread.isAlive()) {
+            //the loop stopped before it saw the request
+            key.cancel();
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        key.cancel();
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    public void run() {
+      try {
+        while (running) {
+          try {
+            selector.select();
+            cancelPending();
+            registerPending();
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+              SelectionKey key = it.next();
+              it.remove();
+              if (!key.isValid()) {
+                continue;
+              }
+              try {
+                ((UDPInterface) key.attachment()).readBatch(MAX_READS_PER_KEY);
+              } catch (RuntimeException e) {
+                //e.g. the queue of a client that is terminating; only this client loses its socket
+                ClientLogger.log(ClientLogger.ERROR,
+                    "UDPSelectorGroup - Error while reading, UDP channel dropped: " + e);
+                key.cancel();
+              }
+            }
+          } catch (ClosedSelectorException e) {
+            break;
+          } catch (IOException e) {
+            if (running) {
+              ClientLogger.log(ClientLogger.ERROR, "UDPSelectorGroup - Error while selecting: " + e);
+            }
+          }
+        }
+      } finally {
+        //nobody reads any more, release the clients waiting in cancel()
+        cancelPending();
+      }
+    }
+
+    private void cancelPending() {
+      Cancellation cancellation;
+      while ((cancellation = cancellations.poll()) != null) {
+        cancellation.key.cancel();
+        cancellation.done.countDown();
+      }
+    }
+
+    private void registerPending() {
+      UDPInterface udpInterface;
+      while ((udpInterface = pending.poll()) != null) {
+        if (!udpInterface.getChannel().isOpen()) {
+          //terminated before it got registered
+          continue;
+        }
+        try {
+          udpInterface.setSelectionKey(
+              udpInterface.getChannel().register(selector, SelectionKey.OP_READ, udpInterface));
+        } catch (IOException e) {
+          ClientLogger.log(ClientLogger.ERROR,
+              "UDPSelectorGroup - Cannot register UDP channel: " + e);
+        }
+      }
+    }
+
+    void terminate() {
+      this.running = false;
+      selector.wakeup();
+      try {
+        if (thread.isAlive()) {
+          thread.join();
+        }
+        cancelPending();
+        selector.close();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static class Cancellation {
+
+    private final SelectionKey key;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    Cancellation(SelectionKey key) {
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.udp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+
+/**
+ * An optional writer stage between the clients and their sockets. Encoded datagrams are copied
+ * into a bounded ring and sent by the "UDPWriter" thread, which takes every pending datagram on
+ * each wakeup; the sending thread (application or client dispatcher) never waits for the socket.
+ * One writer can serve many clients (see
+ * {@link org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters#setWriter(UDPWriter)}).
+ * When the ring is full a sender may wait a bounded time for space; after that the datagram is
+ * dropped and counted, as the network might have lost it.
+ * <p>
+ * Send rate limits ({@link org.eclipse.paho.mqttsn.udpclient.utils.TokenBucket}) are kept by
+ * this thread, before each datagram is sent, so that no client thread waits for them as long as
+ * the ring has space. A client with a send pacer but no writer gets a writer of its own.
+ * Clients sharing a writer also share its waits: the datagrams of one client wait behind those
+ * of a client over its rate, and when that client has filled the ring, the others wait for
+ * space (or drop) as well. Give clients with different rates writers of their own.
+ */
+public class UDPWriter implements Runnable {
+
+  //wake the writer for every datagram
+  public final static int FLUSH_IMMEDIATE = 0;
+  //wake the writer when batchSize datagrams are pending or flushInterval has passed
+  public final static int FLUSH_BATCHED = 1;
+
+  private final int flushPolicy;
+  private final int batchSize;
+  private final long flushInterval;
+
+  //datagram bytes; one view for the senders (used under the lock) and one for the writer thread
+  private final ByteBuffer ringIn;
+  private final ByteBuffer ringOut;
+
+  //one slot per pending datagram
+  private final int[] offsets;
+  private final int[] lengths;
+  private final UDPInterface[] senders;
+  private int head;
+  private int count;
+  private int byteTail;
+
+  private boolean writerWaiting;
+  private int sendersWaiting; //senders waiting for space in the ring
+  private volatile boolean running;
+  private final Thread writeThread;
+
+  private volatile int sendQueueDepth;
+  private long sentFrames;
+  private long droppedFrames;
+
+  /**
+   * Creates a writer that sends every datagram as soon as possible.
+   *
+   * @param capacityBytes size of the ring, at least one maximum sized datagram
+   * @param maxFrames maximum number of pending datagrams
+   */
+  public UDPWriter(int capacityBytes, int maxFrames) {
+    this(capacityBytes, maxFrames, FLUSH_IMMEDIATE, 1, 0);
+  }
+
+  /**
+   * @param capacityBytes size of the ring, at least one maximum sized datagram
+   * @param maxFrames maximum number of pending datagrams
+   * @param flushPolicy FLUSH_IMMEDIATE or FLUSH_BATCHED
+   * @param batchSize number of pending datagrams that wakes the writer (FLUSH_BATCHED)
+   * @param flushInterval maximum time (in milliseconds) a datagram waits (FLUSH_BATCHED)
+   */
+  public UDPWriter(int capacityBytes, int maxFrames, int flushPolicy, int batchSize,
+      long flushInterval) {
+    if (maxFrames < 1 || capacityBytes < 1) {
+      throw new IllegalArgumentException("The send ring must hold at least one datagram");
+    }
+    if (flushPolicy == FLUSH_BATCHED && (batchSize < 1 || flushInterval < 1)) {
+      throw new IllegalArgumentException("Batched flushing needs a batch size and an interval");
+    }
+    if (flushPolicy != FLUSH_IMMEDIATE && flushPolicy != FLUSH_BATCHED) {
+      throw new IllegalArgumentException("Unknown flush policy: " + flushPolicy);
+    }
+    this.flushPolicy = flushPolicy;
+    this.batchSize = batchSize;
+    this.flushInterval = flushInterval;
+    this.ringIn = ByteBuffer.allocateDirect(capacityBytes);
+    this.ringOut = ringIn.duplicate();
+    this.offsets = new int[maxFrames];
+    this.lengths = new int[maxFrames];
+    this.senders = new UDPInterface[maxFrames];
+
+    this.running = true;
+    this.writeThread = new Thread(this, "UDPWriter");
+    this.writeThread.setDaemon(true);
+    this.writeThread.start();
+  }
+
+  /**
+   * Copies the datagram between position and limit of the buffer into the ring.
+   *
+   * @return false if the datagram was dropped because the ring is full
+   */
+  boolean enqueue(UDPInterface sender, ByteBuffer datagram) {
+    return enqueue(sender, datagram, 0);
+  }
+
+  /**
+   * Copies the datagram between position and limit of the buffer into the ring, waiting up to
+   * maxWait milliseconds for the writer thread to make space.
+   *
+   * @return false if the datagram was dropped because the ring stayed full
+   */
+  boolean enqueue(UDPInterface sender, ByteBuffer datagram, long maxWait) {
+    int length = datagram.remaining();
+    synchronized (this) {
+      int offset = reserve(length);
+      if (offset < 0 && maxWait > 0 && length <= ringIn.capacity()) {
+        long deadline = System.currentTimeMillis() + maxWait;
+        sendersWaiting++;
+        try {
+          long timeout = maxWait;
+          while (offset < 0 && running && timeout > 0) {
+            wait(timeout);
+            offset = reserve(length);
+            timeout = deadline - System.currentTimeMillis();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          sendersWaiting--;
+        }
+      }
+      if (offset < 0 || !running) {
+        droppedFrames++;
+        return false;
+      }
+      ringIn.limit(offset + length).position(offset);
+      ringIn.put(datagram);
+      int slot = (head + count) % offsets.length;
+      offsets[slot] = offset;
+      lengths[slot] = length;
+      senders[slot] = sender;
+      count++;
+      byteTail = offset + length;
+      sendQueueDepth = count;
+      if (writerWaiting && (flushPolicy == FLUSH_IMMEDIATE || count >= batchSize)) {
+        //senders waiting for space use the same monitor, make sure the writer is woken
+        if (sendersWaiting > 0) {
+          notifyAll();
+        } else {
+          notify();
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the offset in the ring for a datagram of this length, -1 if it does not fit
+   */
+  private int reserve(int length) {
+    int capacity = ringIn.capacity();
+    if (count == offsets.length || length > capacity) {
+      return -1;
+    }
+    if (count == 0) {
+      return 0;
+    }
+    int byteHead = offsets[head];
+    if (byteTail > byteHead) {
+      if (capacity - byteTail >= length) {
+        return byteTail;
+      }
+      //wrap around, leaving the end of the ring unused
+      return length <= byteHead ? 0 : -1;
+    }
+    return byteHead - byteTail >= length ? byteTail : -1;
+  }
+
+  public void run() {
+    while (true) {
+      int first;
+      int n;
+      synchronized (this) {
+        try {
+          waitForFlush();
+        } catch (InterruptedException e) {
+          break;
+        }
+        if (count == 0) {
+          if (!running) {
+            break;
+          }
+          continue;
+        }
+        first = head;
+        n = count;
+      }
+
+      //the slots taken are not touched by the senders until they are released below
+      int dropped = 0;
+      for (int i = 0; i < n; i++) {
+        int slot = (first + i) % offsets.length;
+        ringOut.limit(offsets[slot] + lengths[slot]).position(offsets[slot]);
+        try {
+          if (running) {
+            senders[slot].pace(lengths[slot]);
+          }
+          if (!senders[slot].transmit(ringOut)) {
+            dropped++;
+          }
+        } catch (IOException e) {
+          ClientLogger.log(ClientLogger.ERROR,
+              "UDPWriter - Error while writing on the UDP socket: " + e);
+        }
+      }
+
+      synchronized (this) {
+        for (int i = 0; i < n; i++) {
+          int slot = (first + i) % offsets.length;
+          senders[slot] = null;
+        }
+        head = (first + n) % offsets.length;
+        count -= n;
+        sentFrames += n - dropped;
+        droppedFrames += dropped;
+        sendQueueDepth = count;
+        if (sendersWaiting > 0) {
+          notifyAll();
+        }
+      }
+      if (dropped > 0) {
+        ClientLogger.log(ClientLogger.WARN,
+            "UDPWriter - Socket send buffer full, " + dropped + " datagrams dropped.");
+      }
+    }
+  }
+
+  private void waitForFlush() throws InterruptedException {
+    if (flushPolicy == FLUSH_IMMEDIATE) {
+      while (count == 0 && running) {
+        writerWaiting = true;
+        wait();
+        writerWaiting = false;
+      }
+      return;
+    }
+    long deadline = System.currentTimeMillis() + flushInterval;
+    while (count < batchSize && running) {
+      long timeout = deadline - System.currentTimeMillis();
+      if (timeout <= 0) {
+        return;
+      }
+      writerWaiting = true;
+      wait(timeout);
+      writerWaiting = false;
+    }
+  }
+
+  /**
+   * @return the number of datagrams waiting to be sent
+   */
+  public int getSendQueueDepth() {
+    return sendQueueDepth;
+  }
+
+  public synchronized long getSentFrames() {
+    return sentFrames;
+  }
+
+  public synchronized long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /**
+   * Sends the datagrams still pending and stops the writer thread.
+   */
+  public void terminate() {
+    synchronized (this) {
+      this.running = false;
+      notifyAll();
+    }
+    try {
+      writeThread.join();
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+}
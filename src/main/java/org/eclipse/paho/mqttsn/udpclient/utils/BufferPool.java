@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of at most maxBuffers equally sized receive buffers. Buffers are created on first use,
+ * taken by the reading thread and given back by whoever handles the message last, so the pool
+ * is thread safe. When all of them are taken no new buffer is allocated: {@link #acquire()}
+ * returns null and the reader copies the message out of its own buffer instead.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final boolean direct;
+	private final ByteBuffer[] free;
+	private int count;
+	private int created;
+
+	public BufferPool(int bufferSize, int maxBuffers, boolean direct) {
+		if (maxBuffers < 1) {
+			throw new IllegalArgumentException("A buffer pool needs at least one buffer");
+		}
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		this.free = new ByteBuffer[maxBuffers];
+	}
+
+	/**
+	 * @return a cleared buffer, null if all buffers of the pool are taken
+	 */
+	public ByteBuffer acquire() {
+		synchronized (free) {
+			if (count > 0) {
+				ByteBuffer buffer = free[--count];
+				free[count] = null;
+				buffer.clear();
+				return buffer;
+			}
+			if (created == free.length) {
+				return null;
+			}
+			created++;
+		}
+		return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+	}
+
+	public void release(ByteBuffer buffer) {
+		synchronized (free) {
+			if (count < free.length) {
+				free[count++] = buffer;
+			}
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getMaxBuffers() {
+		return free.length;
+	}
+}
@@ -92,6 +92,14 @@ public class ClientLogger {
 	}
 
 
+	/**
+	 * Lets callers skip building expensive log messages that would be dropped anyway.
+	 */
+	public static boolean isLoggable(int logLevel) {
+		return logLevel >= LOG_LEVEL;
+	}
+
+
 	public static void setLogLevel(int logLevel) {
 		LOG_LEVEL = logLevel;
 	}
@@ -18,6 +18,12 @@ package org.eclipse.paho.mqttsn.udpclient.utils;
 
 import java.net.InetAddress;
 
+import org.eclipse.paho.mqttsn.udpclient.transport.ClientTransport;
+import org.eclipse.paho.mqttsn.udpclient.udp.UDPForwarder;
+import org.eclipse.paho.mqttsn.udpclient.udp.UDPInterface;
+import org.eclipse.paho.mqttsn.udpclient.udp.UDPSelectorGroup;
+import org.eclipse.paho.mqttsn.udpclient.udp.UDPWriter;
+
 
 public class ClientParameters {
 
@@ -31,19 +37,66 @@ public class ClientParameters {
 	//private int searchGWBroadcastRadius = 1;
 	
 	//the maximum length of the Mqtts message
-	private int maxMqttsLength;
+	private int maxMqttsLength = 65536;
 
 	//the minimum length of the Mqtts message
-	private int minMqttsLength;
+	private int minMqttsLength = 2;
 	
 	//the keep alive period (in seconds) 
 	private int keepAlivePeriod; 
 
 	//maximum retries of sending a message 
-	private int maxRetries;
+	private int maxRetries = 2;
 	
 	//maximum time (in seconds) waiting for a message 
-	private int waitingTime;
+	private int waitingTime = 5;
+
+	//number of received messages waiting to be handled from which received messages are shed,
+	//QoS 0 PUBLISH first (0 = never); the queue is not bounded by it
+	private int maxInboundQueue = 0;
+
+	//maximum number of QoS 1/2 PUBLISH, SUBSCRIBE, UNSUBSCRIBE and REGISTER requests waiting
+	//for their acknowledgement at once
+	private int maxInflight = 1;
+
+	//SO_RCVBUF and SO_SNDBUF of the UDP socket (0 = system default)
+	private int receiveBufferSize = 0;
+	private int sendBufferSize = 0;
+
+	//the transport to the gateway (null = UDP)
+	private ClientTransport transport;
+
+	//whether the client and transport loops run on virtual threads (Java 21 or newer)
+	private boolean virtualThreads = false;
+
+	//shared selector threads reading the UDP socket (null = dedicated read thread)
+	private UDPSelectorGroup selectorGroup;
+
+	//whether datagrams are received into a direct buffer
+	private boolean directReceiveBuffer = false;
+
+	//whether received PUBLISH payloads stay in the receive buffer instead of being copied
+	private boolean zeroCopyPayload = false;
+
+	//shared writer thread sending the datagrams (null = sent by the calling thread)
+	private UDPWriter writer;
+
+	//send rate limits of this client and of all clients sharing the bucket (null = no limit);
+	//kept by the writer thread, a paced client without a writer gets one of its own
+	private TokenBucket sendPacer;
+	private TokenBucket sharedSendPacer;
+
+	//whether the UDP socket is connected to the gateway (not used with a forwarder)
+	private boolean connectedChannel = false;
+
+	//whether messages are sent with a forwarder encapsulation header (spec v1.2)
+	private boolean encapsulation = UDPInterface.ENCAPS;
+
+	//shared forwarder socket the client is multiplexed over (null = own UDP socket)
+	private UDPForwarder forwarder;
+
+	//the wireless node id of the client when sent through a forwarder
+	private byte[] wirelessNodeId;
 
 		
 	
@@ -113,4 +166,132 @@ public class ClientParameters {
 	public void setWaitingTime(int waitingTime) {
 		this.waitingTime = waitingTime;
 	}
+
+	public int getMaxInboundQueue() {
+		return maxInboundQueue;
+	}
+
+	public void setMaxInboundQueue(int maxInboundQueue) {
+		this.maxInboundQueue = maxInboundQueue;
+	}
+
+	public int getMaxInflight() {
+		return maxInflight;
+	}
+
+	public void setMaxInflight(int maxInflight) {
+		this.maxInflight = maxInflight;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public void setSendBufferSize(int sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	public ClientTransport getTransport() {
+		return transport;
+	}
+
+	public void setTransport(ClientTransport transport) {
+		this.transport = transport;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public UDPSelectorGroup getSelectorGroup() {
+		return selectorGroup;
+	}
+
+	public void setSelectorGroup(UDPSelectorGroup selectorGroup) {
+		this.selectorGroup = selectorGroup;
+	}
+
+	public boolean isDirectReceiveBuffer() {
+		return directReceiveBuffer;
+	}
+
+	public void setDirectReceiveBuffer(boolean directReceiveBuffer) {
+		this.directReceiveBuffer = directReceiveBuffer;
+	}
+
+	public boolean isZeroCopyPayload() {
+		return zeroCopyPayload;
+	}
+
+	public void setZeroCopyPayload(boolean zeroCopyPayload) {
+		this.zeroCopyPayload = zeroCopyPayload;
+	}
+
+	public UDPWriter getWriter() {
+		return writer;
+	}
+
+	public void setWriter(UDPWriter writer) {
+		this.writer = writer;
+	}
+
+	public TokenBucket getSendPacer() {
+		return sendPacer;
+	}
+
+	public void setSendPacer(TokenBucket sendPacer) {
+		this.sendPacer = sendPacer;
+	}
+
+	public TokenBucket getSharedSendPacer() {
+		return sharedSendPacer;
+	}
+
+	public void setSharedSendPacer(TokenBucket sharedSendPacer) {
+		this.sharedSendPacer = sharedSendPacer;
+	}
+
+	public boolean isConnectedChannel() {
+		return connectedChannel;
+	}
+
+	public void setConnectedChannel(boolean connectedChannel) {
+		this.connectedChannel = connectedChannel;
+	}
+
+	public boolean isEncapsulation() {
+		return encapsulation;
+	}
+
+	public void setEncapsulation(boolean encapsulation) {
+		this.encapsulation = encapsulation;
+	}
+
+	public UDPForwarder getForwarder() {
+		return forwarder;
+	}
+
+	public void setForwarder(UDPForwarder forwarder) {
+		this.forwarder = forwarder;
+	}
+
+	public byte[] getWirelessNodeId() {
+		return wirelessNodeId;
+	}
+
+	public void setWirelessNodeId(byte[] wirelessNodeId) {
+		this.wirelessNodeId = wirelessNodeId;
+	}
 }
\ No newline at end of file
@@ -16,23 +16,42 @@
 
 package org.eclipse.paho.mqttsn.udpclient.utils;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MsgQueue {
 	
-   private LinkedList<Object> queue;
+   private ArrayDeque<Object> queue;
+	//a lock instead of the monitor, so that a virtual thread waiting in get() does not pin its carrier
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
 	private volatile boolean isClosed;
+	
+	//queue size from which the producers shed received messages (0 = never); the queue itself is
+	//not bounded, timer messages, local requests and responses are always added
+	private final int shedThreshold;
+	//number of messages shed by the producers, per mqtts message type
+	private final long[] shedCounts = new long[256];
 
 	public MsgQueue() {
-		queue = new LinkedList<Object>();
+		this(0);
+	}
+
+	public MsgQueue(int shedThreshold) {
+		queue = new ArrayDeque<Object>();
 		isClosed = false;
+		this.shedThreshold = shedThreshold;
 	}
 
 	public void close() {
-		synchronized (queue) {
+		lock.lock();
+		try {
 			isClosed = true;
-			queue.notifyAll();
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -40,12 +59,15 @@ public class MsgQueue {
 	 * @param o
 	 */
 	public void addLast(Object o) {
-		synchronized (queue) {
+		lock.lock();
+		try {
 			if(isClosed) {
 				throw new IllegalStateException("Queue is closed.");
 			}
 			queue.add(o);
-			queue.notify();
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -53,22 +75,44 @@ public class MsgQueue {
 	 * @param o
 	 */
 	public void addFirst(Object o) {
-		synchronized (queue) {
+		lock.lock();
+		try {
 			if(isClosed) {
 				throw new IllegalStateException("Queue is closed.");
 			}
 			queue.addFirst(o);
-			queue.notify();
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the first count objects of the array, in order, with a single wakeup of the consumer.
+	 */
+	public void addAllLast(Object[] batch, int count) {
+		lock.lock();
+		try {
+			if(isClosed) {
+				throw new IllegalStateException("Queue is closed.");
+			}
+			for (int i = 0; i < count; i++) {
+				queue.add(batch[i]);
+			}
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	public Object get() throws InterruptedException {
-		synchronized (queue) {
+		lock.lockInterruptibly();
+		try {
 			if(isClosed) {
 				throw new IllegalStateException("Queue is closed.");
 			}
 			while (queue.isEmpty() & !this.isClosed)
-				queue.wait();
+				notEmpty.await();
 			Object res=null;
 			try {
 				res=queue.removeFirst();
@@ -76,6 +120,31 @@ public class MsgQueue {
 				res=null;
 			}
 			return res;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the queue is not empty and moves as many objects as fit into the array.
+	 *
+	 * @return the number of objects moved, 0 if the queue was closed
+	 */
+	public int drainTo(Object[] batch) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			if(isClosed) {
+				throw new IllegalStateException("Queue is closed.");
+			}
+			while (queue.isEmpty() & !this.isClosed)
+				notEmpty.await();
+			int count = 0;
+			while (count < batch.length && !queue.isEmpty()) {
+				batch[count++] = queue.removeFirst();
+			}
+			return count;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -83,6 +152,41 @@ public class MsgQueue {
 	 * @return
 	 */
 	public int size() {
-		return queue.size();
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getShedThreshold() {
+		return shedThreshold;
+	}
+
+	/**
+	 * Counts a message that was dropped instead of being added because the queue had reached
+	 * the shedding threshold.
+	 */
+	public void recordShed(int msgType) {
+		synchronized (shedCounts) {
+			shedCounts[msgType & 0xFF]++;
+		}
+	}
+
+	public long getShedCount(int msgType) {
+		synchronized (shedCounts) {
+			return shedCounts[msgType & 0xFF];
+		}
+	}
+
+	public long getShedTotal() {
+		synchronized (shedCounts) {
+			long total = 0;
+			for (int i = 0; i < shedCounts.length; i++) {
+				total += shedCounts[i];
+			}
+			return total;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces sending to a byte rate and a packet rate, each allowing a burst. A sender over the rate
+ * is not dropped: it takes its tokens in advance and waits until they have been earned, so the
+ * senders are served in the order they arrive and the rate is kept on average. A bucket can be
+ * given to one client (see {@link ClientParameters#setSendPacer(TokenBucket)}) or shared by all
+ * clients of the process (see {@link ClientParameters#setSharedSendPacer(TokenBucket)}); the
+ * client's writer thread is the one that waits (see
+ * {@link org.eclipse.paho.mqttsn.udpclient.udp.UDPWriter}).
+ */
+public class TokenBucket {
+
+	private final static long NANOS_PER_SECOND = 1000000000L;
+
+	private final Rate bytes;
+	private final Rate packets;
+
+	//statistics
+	private long sends;
+	private long throttledSends;
+	private long throttledNanos;
+
+	/**
+	 * @param bytesPerSecond sustained byte rate, 0 for no byte limit
+	 * @param byteBurst bytes that may be sent at once after an idle period
+	 * @param packetsPerSecond sustained packet rate, 0 for no packet limit
+	 * @param packetBurst packets that may be sent at once after an idle period
+	 */
+	public TokenBucket(long bytesPerSecond, long byteBurst, long packetsPerSecond, long packetBurst) {
+		if (bytesPerSecond < 0 || packetsPerSecond < 0) {
+			throw new IllegalArgumentException("A rate must not be negative");
+		}
+		if ((bytesPerSecond > 0 && byteBurst < 1) || (packetsPerSecond > 0 && packetBurst < 1)) {
+			throw new IllegalArgumentException("A limited rate needs a burst of at least 1");
+		}
+		this.bytes = new Rate(bytesPerSecond, byteBurst);
+		this.packets = new Rate(packetsPerSecond, packetBurst);
+	}
+
+	/**
+	 * Takes the tokens for one packet and waits until the packet may be sent. If the thread is
+	 * interrupted it stops waiting, with the interrupt status set.
+	 *
+	 * @param length the packet length in bytes
+	 */
+	public void acquire(int length) {
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			wait = Math.max(bytes.take(length, now), packets.take(1, now));
+			sends++;
+			if (wait > 0) {
+				throttledSends++;
+				throttledNanos += wait;
+			}
+		}
+		if (wait <= 0) {
+			return;
+		}
+		long deadline = System.nanoTime() + wait;
+		while (!Thread.currentThread().isInterrupted()) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return;
+			}
+			LockSupport.parkNanos(this, remaining);
+		}
+	}
+
+	public synchronized long getSends() {
+		return sends;
+	}
+
+	/**
+	 * @return the number of sends that had to wait
+	 */
+	public synchronized long getThrottledSends() {
+		return throttledSends;
+	}
+
+	/**
+	 * @return the total time senders waited, in nanoseconds
+	 */
+	public synchronized long getThrottledNanos() {
+		return throttledNanos;
+	}
+
+
+	/**
+	 * One limit. Tokens are counted in billionths, so that a nanosecond earns rate of them.
+	 */
+	private static class Rate {
+
+		private final long rate;
+		private final long capacity;
+		private long tokens;
+		private long last;
+
+		Rate(long rate, long burst) {
+			this.rate = rate;
+			this.capacity = rate > 0 ? Math.multiplyExact(burst, NANOS_PER_SECOND) : 0;
+			this.tokens = capacity;
+			this.last = System.nanoTime();
+		}
+
+		/**
+		 * @return nanoseconds until the tokens taken have been earned
+		 */
+		long take(long amount, long now) {
+			if (rate == 0) {
+				return 0;
+			}
+			long elapsed = now - last;
+			last = now;
+			//compare with the time to fill the bucket first, elapsed * rate could overflow
+			if (elapsed > (capacity - tokens) / rate) {
+				tokens = capacity;
+			} else if (elapsed > 0) {
+				tokens += elapsed * rate;
+			}
+			tokens -= amount * NANOS_PER_SECOND;
+			return tokens >= 0 ? 0 : (-tokens + rate - 1) / rate;
+		}
+	}
+}
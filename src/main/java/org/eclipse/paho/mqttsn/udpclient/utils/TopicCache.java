@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The encoded bytes of recently used topic names, shared by all clients, so that the messages
+ * carrying a topic name (REGISTER, SUBSCRIBE, UNSUBSCRIBE, WILLTOPIC, WILLTOPICUPD) copy the
+ * bytes instead of encoding the string. Devices that re-register the same topics after every
+ * reconnect then encode each name only once. The least recently used names are evicted when
+ * the cache holds more than its capacity.
+ */
+public class TopicCache {
+
+	public final static int DEFAULT_CAPACITY = 4096;
+
+	private static int capacity = DEFAULT_CAPACITY;
+	private static long hits;
+	private static long misses;
+
+	private static final LinkedHashMap<String, byte[]> cache =
+			new LinkedHashMap<String, byte[]>(64, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+					return size() > capacity;
+				}
+			};
+
+	/**
+	 * @return the topic name encoded as by {@link Utils#encodeString(String)}; the array is
+	 * shared and must not be modified
+	 */
+	public static byte[] encode(String topicName) {
+		synchronized (cache) {
+			byte[] encoded = cache.get(topicName);
+			if (encoded != null) {
+				hits++;
+				return encoded;
+			}
+			misses++;
+		}
+		byte[] encoded = Utils.encodeString(topicName);
+		if (encoded != null) {
+			synchronized (cache) {
+				cache.put(topicName, encoded);
+			}
+		}
+		return encoded;
+	}
+
+	/**
+	 * Sets the number of topic names kept, 0 disables the cache.
+	 */
+	public static void setCapacity(int capacity) {
+		synchronized (cache) {
+			TopicCache.capacity = Math.max(capacity, 0);
+			while (cache.size() > TopicCache.capacity) {
+				cache.remove(cache.keySet().iterator().next());
+			}
+		}
+	}
+
+	public static int getCapacity() {
+		synchronized (cache) {
+			return capacity;
+		}
+	}
+
+	public static int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public static long getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	public static long getMisses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	public static void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package org.eclipse.paho.mqttsn.udpclient.utils;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 public class Utils {
 	
@@ -44,6 +45,20 @@ public class Utils {
 	}
 	
 	
+	/**
+	 * @param data
+	 * @return the string encoded with STRING_ENCODING, without a length prefix
+	 */
+	public static byte[] encodeString(String data) {
+		try {
+			return data.getBytes(STRING_ENCODING);
+		} catch(UnsupportedEncodingException e) {
+			ClientLogger.log(ClientLogger.ERROR, "Utils - Unsupported string encoding: "+STRING_ENCODING);
+		}
+		return null;
+	}
+	
+	
 	/**
 	 * @param data
 	 * @param offset
@@ -70,6 +85,25 @@ public class Utils {
 		return retString;
 	}
 	
+	
+	/**
+	 * Decodes a string of known length without changing position or limit of the buffer.
+	 * @param data
+	 * @param index absolute index of the first byte
+	 * @param length
+	 * @return
+	 */
+	public static String decodeString(ByteBuffer data, int index, int length) {
+		try {
+			if (data.hasArray()) {
+				return new String(data.array(), data.arrayOffset() + index, length, STRING_ENCODING);
+			}
+			return new String(SliceByteBuffer(data, index, length), STRING_ENCODING);
+		} catch(UnsupportedEncodingException e) {
+			ClientLogger.log(ClientLogger.ERROR, "Utils - Unsupported string encoding: "+STRING_ENCODING);
+		}
+		return null;
+	}
 		
 	/**
 	 * @param b
@@ -135,4 +169,23 @@ public class Utils {
 		System.arraycopy(data, offset, temp, 0, length);
 		return (temp);
 	}
+
+	/**
+	 * Copies bytes out of a buffer without changing its position or limit.
+	 * @param data
+	 * @param index absolute index of the first byte
+	 * @param length
+	 * @return
+	 */
+	public static byte[] SliceByteBuffer(ByteBuffer data, int index, int length) {
+		byte temp[] = new byte[length];
+		if (data.hasArray()) {
+			System.arraycopy(data.array(), data.arrayOffset() + index, temp, 0, length);
+		} else {
+			ByteBuffer src = data.duplicate();
+			src.position(index);
+			src.get(temp);
+		}
+		return (temp);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ordered access to the indices of a {@link MappedRing}, which another process reads and writes
+ * through its own mapping: a release store publishes everything written before it, an acquire
+ * load makes everything written before the matching store visible. The indices are kept in
+ * native byte order at 8 byte aligned offsets of the buffer.
+ * <p>
+ * This is the Java 21 variant of the class, it accesses the buffer through a VarHandle.
+ */
+final class RingIndex {
+
+  private final static VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final ByteBuffer buffer;
+
+  RingIndex(ByteBuffer buffer) {
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("Ring indices need a direct buffer");
+    }
+    this.buffer = buffer;
+  }
+
+  long getAcquire(int offset) {
+    return (long) LONGS.getAcquire(buffer, offset);
+  }
+
+  void setRelease(int offset, long value) {
+    LONGS.setRelease(buffer, offset, value);
+  }
+}
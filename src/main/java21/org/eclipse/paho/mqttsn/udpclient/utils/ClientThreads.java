@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution. 
+ *
+ * The Eclipse Public License is available at 
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at 
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package org.eclipse.paho.mqttsn.udpclient.utils;
+
+/**
+ * Creates the threads running the blocking loops of a client (the dispatcher of
+ * {@link org.eclipse.paho.mqttsn.udpclient.MqttsClient} and the read loop of its transport).
+ * This is the Java 21 variant of the class: the loops run on virtual threads when
+ * {@link ClientParameters#setVirtualThreads(boolean)} is set, so a blocked client costs no
+ * platform thread. Virtual threads are always daemon threads.
+ */
+public class ClientThreads {
+
+	/**
+	 * @return true if this runtime can run the client loops on virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return true;
+	}
+
+	/**
+	 * Creates an unstarted thread for a client loop.
+	 *
+	 * @param virtual whether a virtual thread is wanted
+	 */
+	public static Thread newThread(Runnable task, String name, boolean virtual) {
+		if (virtual) {
+			return Thread.ofVirtual().name(name).unstarted(task);
+		}
+		return new Thread(task, name);
+	}
+}
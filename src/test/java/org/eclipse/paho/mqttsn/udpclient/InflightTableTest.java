@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPingReq;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsPubRel;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The in-flight window of a client with four requests, i.e. eight slots.
+ */
+class InflightTableTest {
+
+  private final static int CAPACITY = 4;
+
+  private final InflightTable table = new InflightTable(CAPACITY);
+  private final MqttsMessage[] out = new MqttsMessage[CAPACITY];
+  private final int[] retries = new int[CAPACITY];
+
+  @Test
+  void putGetRemoveAtCapacity() {
+    MqttsMessage[] msgs = messages(5);
+    for (int i = 0; i < CAPACITY; i++) {
+      assertTrue(table.put(100 + i, msgs[i], 0));
+    }
+    assertEquals(CAPACITY, table.size());
+    assertTrue(table.isFull());
+    assertFalse(table.put(200, msgs[4], 0));
+    assertNull(table.get(200));
+    assertSame(msgs[0], table.get(100));
+    assertSame(msgs[3], table.get(103));
+
+    //a PUBREL replaces its PUBLISH even when the window is full
+    MqttsPubRel pubRel = new MqttsPubRel();
+    assertTrue(table.put(101, pubRel, 0));
+    assertSame(pubRel, table.get(101));
+    assertEquals(CAPACITY, table.size());
+
+    assertSame(msgs[2], table.remove(102));
+    assertNull(table.get(102));
+    assertNull(table.remove(102));
+    assertEquals(CAPACITY - 1, table.size());
+    assertTrue(table.put(200, msgs[4], 0));
+    assertSame(msgs[4], table.get(200));
+    assertTrue(table.isFull());
+
+    table.clear();
+    assertTrue(table.isEmpty());
+    assertNull(table.get(100));
+    assertTrue(table.put(300, msgs[0], 0));
+  }
+
+  @Test
+  void removeKeepsCollidingIds() {
+    MqttsMessage[] msgs = messages(4);
+    //1, 9, 17 and 25 all hash to slot 1
+    for (int i = 0; i < 4; i++) {
+      table.put(1 + 8 * i, msgs[i], 0);
+    }
+    assertSame(msgs[1], table.remove(9));
+    assertNull(table.get(9));
+    assertSame(msgs[0], table.get(1));
+    assertSame(msgs[2], table.get(17));
+    assertSame(msgs[3], table.get(25));
+
+    assertSame(msgs[0], table.remove(1));
+    assertNull(table.get(1));
+    assertSame(msgs[2], table.get(17));
+    assertSame(msgs[3], table.get(25));
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  void removeKeepsProbeSequenceRoundTheEnd() {
+    MqttsMessage[] msgs = messages(3);
+    //7 and 15 hash to the last slot, 15 goes on to slot 0, 8 hashes to slot 0
+    table.put(7, msgs[0], 0);
+    table.put(15, msgs[1], 0);
+    table.put(8, msgs[2], 0);
+    assertSame(msgs[0], table.remove(7));
+    assertNull(table.get(7));
+    assertSame(msgs[1], table.get(15));
+    assertSame(msgs[2], table.get(8));
+  }
+
+  @Test
+  void expiresOnlyRequestsSentBefore() {
+    MqttsMessage[] msgs = messages(3);
+    table.put(1, msgs[0], 0);
+    table.put(9, msgs[1], 100);
+    table.put(17, msgs[2], 200);
+
+    assertEquals(0, table.expire(0, 10, out, retries));
+    assertEquals(1, table.expire(50, 250, out, retries));
+    assertSame(msgs[0], out[0]);
+    assertEquals(1, retries[0]);
+
+    //counted per request, and sent again at 250 or 260
+    assertEquals(3, table.expire(260, 300, out, retries));
+    assertEquals(2, retries(msgs[0], 3));
+    assertEquals(1, retries(msgs[1], 3));
+    assertEquals(1, retries(msgs[2], 3));
+    assertEquals(0, table.expire(260, 310, out, retries));
+  }
+
+  @Test
+  void removeKeepsRetriesOfMovedEntries() {
+    MqttsMessage[] msgs = messages(3);
+    table.put(1, msgs[0], 0);
+    table.put(9, msgs[1], 0);
+    table.put(17, msgs[2], 0);
+    table.expire(10, 10, out, retries);
+    table.expire(20, 20, out, retries);
+
+    //the entries behind the removed one move up with their times and counts
+    table.remove(1);
+    assertEquals(2, table.expire(30, 30, out, retries));
+    assertEquals(3, retries(msgs[1], 2));
+    assertEquals(3, retries(msgs[2], 2));
+  }
+
+  @Test
+  void putAndResetCountRetriesFromZero() {
+    MqttsMessage[] msgs = messages(2);
+    table.put(1, msgs[0], 0);
+    table.put(9, msgs[1], 0);
+    table.expire(10, 10, out, retries);
+
+    table.put(9, msgs[1], 20);
+    assertEquals(2, table.expire(30, 30, out, retries));
+    assertEquals(2, retries(msgs[0], 2));
+    assertEquals(1, retries(msgs[1], 2));
+
+    table.resetRetries();
+    assertEquals(2, table.expire(40, 40, out, retries));
+    assertEquals(1, retries[0]);
+    assertEquals(1, retries[1]);
+  }
+
+  /**
+   * @return the retransmission count of the message among the expired ones, -1 if not there
+   */
+  private int retries(MqttsMessage msg, int count) {
+    for (int i = 0; i < count; i++) {
+      if (out[i] == msg) {
+        return retries[i];
+      }
+    }
+    return -1;
+  }
+
+  private static MqttsMessage[] messages(int count) {
+    MqttsMessage[] msgs = new MqttsMessage[count];
+    for (int i = 0; i < count; i++) {
+      msgs[i] = new MqttsPingReq();
+    }
+    return msgs;
+  }
+}
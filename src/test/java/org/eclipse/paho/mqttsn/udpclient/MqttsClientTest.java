@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsFrame;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.transport.LoopbackTransport;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The in-flight window of a client against a fake gateway on a loopback transport. The
+ * gateway accepts the CONNECT and records every other message; the tests answer them.
+ */
+class MqttsClientTest {
+
+  private final static int TOPIC_ID = 5;
+  private final static byte[] PAYLOAD = "hello".getBytes();
+
+  private final BlockingQueue<byte[]> sent = new LinkedBlockingQueue<byte[]>();
+  private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+  private final MqttsFrame frame = new MqttsFrame();
+  private LoopbackTransport transport;
+  private MqttsClient client;
+
+  @BeforeAll
+  static void quiet() {
+    ClientLogger.setLogLevel(ClientLogger.ERROR);
+  }
+
+  @AfterEach
+  void terminate() {
+    if (client != null) {
+      client.terminate();
+    }
+  }
+
+  @Test
+  void acknowledgesOutOfOrderByMsgId() throws Exception {
+    connect(4, 30, 3, 60);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+    }
+    assertFalse(client.publish(TOPIC_ID, PAYLOAD, 1, false), "window full");
+
+    int[] msgIds = new int[4];
+    for (int i = 0; i < 4; i++) {
+      msgIds[i] = expect(MqttsMessage.PUBLISH).msgId();
+    }
+    for (int i = 3; i >= 0; i--) {
+      deliver(MqttsMessage.PUBACK, TOPIC_ID, msgIds[i], MqttsMessage.RETURN_CODE_ACCEPTED);
+      assertEquals("puback " + TOPIC_ID, event());
+    }
+    //a second PUBACK for the same MsgId matches nothing
+    deliver(MqttsMessage.PUBACK, TOPIC_ID, msgIds[0], MqttsMessage.RETURN_CODE_ACCEPTED);
+    assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+    }
+  }
+
+  @Test
+  void retransmitsWithDupAfterWaitingTime() throws Exception {
+    connect(4, 1, 3, 60);
+    long start = System.nanoTime();
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+    MqttsFrame first = expect(MqttsMessage.PUBLISH);
+    int msgIdA = first.msgId();
+    assertFalse(first.isDup());
+
+    //sent half way to the first timeout, so not resent with the first one
+    Thread.sleep(500);
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+    int msgIdB = expect(MqttsMessage.PUBLISH).msgId();
+
+    MqttsFrame resent = expect(MqttsMessage.PUBLISH);
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+    assertEquals(msgIdA, resent.msgId());
+    assertTrue(resent.isDup());
+    assertNull(sent.poll(300, TimeUnit.MILLISECONDS), "PUBLISH " + msgIdB + " resent early");
+
+    deliver(MqttsMessage.PUBACK, TOPIC_ID, msgIdA, MqttsMessage.RETURN_CODE_ACCEPTED);
+    deliver(MqttsMessage.PUBACK, TOPIC_ID, msgIdB, MqttsMessage.RETURN_CODE_ACCEPTED);
+    assertEquals("puback " + TOPIC_ID, event());
+    assertEquals("puback " + TOPIC_ID, event());
+  }
+
+  @Test
+  void disconnectsWhenRetriesUsedUp() throws Exception {
+    connect(4, 1, 1, 60);
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+    assertFalse(expect(MqttsMessage.PUBLISH).isDup());
+    assertTrue(expect(MqttsMessage.PUBLISH).isDup());
+
+    assertEquals("disconnected " + MqttsCallback.MQTTS_LOST_GATEWAY, event());
+    assertNull(sent.poll(1500, TimeUnit.MILLISECONDS), "resent after the gateway was lost");
+    assertFalse(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+  }
+
+  @Test
+  void completesQos2WithWindowFull() throws Exception {
+    connect(2, 30, 3, 60);
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 2, false));
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 2, false));
+    assertFalse(client.publish(TOPIC_ID, PAYLOAD, 2, false), "window full");
+    int msgIdA = expect(MqttsMessage.PUBLISH).msgId();
+    int msgIdB = expect(MqttsMessage.PUBLISH).msgId();
+
+    //each PUBREL takes the place of its PUBLISH in the full window
+    deliver(MqttsMessage.PUBREC, 0, msgIdB, 0);
+    assertEquals(msgIdB, expect(MqttsMessage.PUBREL).msgId());
+    deliver(MqttsMessage.PUBREC, 0, msgIdA, 0);
+    assertEquals(msgIdA, expect(MqttsMessage.PUBREL).msgId());
+    assertFalse(client.publish(TOPIC_ID, PAYLOAD, 2, false), "window full");
+
+    deliver(MqttsMessage.PUBCOMP, 0, msgIdA, 0);
+    assertEquals("pubcomp", event());
+    deliver(MqttsMessage.PUBCOMP, 0, msgIdB, 0);
+    assertEquals("pubcomp", event());
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 2, false));
+  }
+
+  @Test
+  void publishesWhilePingOutstanding() throws Exception {
+    connect(4, 30, 3, 1);
+    expect(MqttsMessage.PINGREQ);
+
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+    int msgId = expect(MqttsMessage.PUBLISH).msgId();
+    deliver(MqttsMessage.PUBACK, TOPIC_ID, msgId, MqttsMessage.RETURN_CODE_ACCEPTED);
+    assertEquals("puback " + TOPIC_ID, event());
+
+    deliver(MqttsMessage.PINGRESP, 0, 0, 0);
+    assertTrue(client.publish(TOPIC_ID, PAYLOAD, 1, false));
+  }
+
+  /**
+   * Starts a client on a loopback transport and connects it.
+   *
+   * @param waitingTime seconds before a request is retransmitted
+   * @param keepAlive seconds between PINGREQs
+   */
+  private void connect(int maxInflight, int waitingTime, int maxRetries, int keepAlive)
+      throws Exception {
+    transport = new LoopbackTransport(new LoopbackTransport.Peer() {
+      public void frameReceived(LoopbackTransport transport, ByteBuffer frame) {
+        if ((frame.get(frame.position() + 1) & 0xFF) == MqttsMessage.CONNECT) {
+          transport.deliver(ByteBuffer.wrap(new byte[] {3, (byte) MqttsMessage.CONNACK,
+              MqttsMessage.RETURN_CODE_ACCEPTED}));
+          return;
+        }
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        sent.add(bytes);
+      }
+    });
+    ClientParameters parameters = new ClientParameters();
+    parameters.setGatewayAddress(InetAddress.getLoopbackAddress());
+    parameters.setGatewayPort(1);
+    parameters.setTransport(transport);
+    parameters.setMaxInflight(maxInflight);
+    parameters.setWaitingTime(waitingTime);
+    parameters.setMaxRetries(maxRetries);
+    client = new MqttsClient(parameters, false);
+    client.registerHandler(new Callback());
+    client.connect("test", true, (short) keepAlive);
+    assertEquals("connected", event());
+  }
+
+  /**
+   * @return the next message the client sent, which must be of this type
+   */
+  private MqttsFrame expect(int msgType) throws InterruptedException {
+    byte[] bytes = sent.poll(5, TimeUnit.SECONDS);
+    assertNotNull(bytes, "no message of type " + msgType + " sent");
+    frame.wrap(ByteBuffer.wrap(bytes), 0);
+    assertEquals(msgType, frame.msgType());
+    return frame;
+  }
+
+  /**
+   * Hands an acknowledgement from the gateway to the client.
+   */
+  private void deliver(int msgType, int topicId, int msgId, int returnCode) {
+    ByteBuffer data = ByteBuffer.allocate(8);
+    data.put((byte) 0).put((byte) msgType);
+    switch (msgType) {
+      case MqttsMessage.PUBACK:
+        data.putShort((short) topicId).putShort((short) msgId).put((byte) returnCode);
+        break;
+      case MqttsMessage.PUBREC:
+      case MqttsMessage.PUBCOMP:
+        data.putShort((short) msgId);
+        break;
+      default:
+        break;
+    }
+    data.put(0, (byte) data.position());
+    data.flip();
+    transport.deliver(data);
+  }
+
+  private String event() throws InterruptedException {
+    String event = events.poll(5, TimeUnit.SECONDS);
+    assertNotNull(event, "no callback");
+    return event;
+  }
+
+  private class Callback implements MqttsCallback {
+
+    public int publishArrived(boolean retain, int qos, int topicId, byte[] payload) {
+      events.add("publish " + topicId);
+      return 0;
+    }
+
+    public void connected() {
+      events.add("connected");
+    }
+
+    public void disconnected(int returnType) {
+      events.add("disconnected " + returnType);
+    }
+
+    public void unsubackReceived() {
+      events.add("unsuback");
+    }
+
+    public void subackReceived(int grantedQos, int topicId, int returnCode) {
+      events.add("suback " + topicId);
+    }
+
+    public void pubCompReceived() {
+      events.add("pubcomp");
+    }
+
+    public void pubAckReceived(int topicId, int returnCode) {
+      events.add("puback " + topicId);
+    }
+
+    public void regAckReceived(int topicId, int returnCode) {
+      events.add("regack " + topicId);
+    }
+
+    public void registerReceived(int topicId, String topicName) {
+      events.add("register " + topicId);
+    }
+
+    public void connectSent() {
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The MsgIds a client hands out.
+ */
+class MsgIdAllocatorTest {
+
+  private final static int MAX = MsgIdAllocator.MAX_MSG_ID;
+
+  private final MsgIdAllocator ids = new MsgIdAllocator();
+
+  @Test
+  void goesRoundPast65535WithoutZero() {
+    for (int expected = 1; expected <= MAX; expected++) {
+      int id = ids.allocate();
+      assertEquals(expected, id);
+      ids.release(id);
+    }
+    assertEquals(0, ids.size());
+    assertEquals(1, ids.allocate());
+    assertEquals(2, ids.allocate());
+  }
+
+  @Test
+  void skipsIdsInFlight() {
+    //held: the first id, both sides of a 64 bit word, one in the middle and the last
+    int[] held = {1, 63, 64, 1000, MAX};
+    int next = 1;
+    for (int id : held) {
+      for (; next < id; next++) {
+        ids.release(ids.allocate());
+      }
+      assertEquals(id, ids.allocate());
+      next++;
+    }
+    assertEquals(held.length, ids.size());
+
+    //round past 65535, where 1 is still in flight
+    assertEquals(2, ids.allocate());
+    assertEquals(3, ids.allocate());
+    ids.release(2);
+    ids.release(3);
+    for (int previous = 3; previous < MAX - 1; ) {
+      int id = ids.allocate();
+      assertTrue(id > previous && id < MAX, "MsgId " + id + " after " + previous);
+      assertNotEquals(63, id);
+      assertNotEquals(64, id);
+      assertNotEquals(1000, id);
+      ids.release(id);
+      previous = id;
+    }
+    //and round again past 65535 and 1
+    assertEquals(2, ids.allocate());
+    for (int id : held) {
+      assertTrue(ids.isInUse(id));
+    }
+    assertEquals(held.length + 1, ids.size());
+  }
+
+  @Test
+  void handsOutNoneWhenAllInUse() {
+    for (int i = 0; i < MAX; i++) {
+      ids.allocate();
+    }
+    assertEquals(MAX, ids.size());
+    assertEquals(0, ids.allocate());
+
+    ids.release(40000);
+    assertEquals(40000, ids.allocate());
+    assertEquals(0, ids.allocate());
+
+    ids.release(0);
+    ids.release(MAX + 1);
+    assertEquals(MAX, ids.size());
+    assertFalse(ids.isInUse(0));
+  }
+
+  @Test
+  void clearGoesOnFromLastId() {
+    for (int i = 0; i < 40000; i++) {
+      ids.allocate();
+    }
+    ids.clear();
+    assertEquals(0, ids.size());
+    assertFalse(ids.isInUse(1));
+    assertEquals(40001, ids.allocate());
+  }
+}
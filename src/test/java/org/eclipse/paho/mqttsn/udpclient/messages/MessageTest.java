@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.messages;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsFrame;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Received messages carried as a copy of their bytes (Message.MQTTS_FRAME) are read back
+ * unchanged, also when they are longer than the copy a pooled message starts with.
+ */
+class MessageTest {
+
+  private final Message message = new Message();
+  private final MqttsFrame frame = new MqttsFrame();
+
+  @Test
+  void copiesFrameLongerThanPooledCopy() {
+    String clientId = "sleeping-sensor-client-id-000000123456";
+    ByteBuffer data = ByteBuffer.allocate(64);
+    data.put((byte) 0).put((byte) MqttsMessage.PINGREQ).put(clientId.getBytes());
+    data.put(0, (byte) data.position());
+    data.flip();
+    assertTrue(data.remaining() > Message.MAX_FRAME_LENGTH);
+
+    MqttsFrame pingreq = copy(data);
+    assertEquals(MqttsMessage.PINGREQ, pingreq.msgType());
+    assertEquals(data.remaining(), pingreq.length());
+    assertEquals(clientId, payload(pingreq));
+  }
+
+  @Test
+  void copiesFrameWithThreeByteLength() {
+    copy(ByteBuffer.wrap(new byte[] {2, (byte) MqttsMessage.PINGRESP}));
+
+    MqttsFrame connack = copy(ByteBuffer.wrap(new byte[] {0x01, 0, 5,
+        (byte) MqttsMessage.CONNACK, MqttsMessage.RETURN_CODE_REJECTED_CONGESTION}));
+    assertEquals(5, connack.length());
+    assertEquals(MqttsMessage.CONNACK, connack.msgType());
+    assertEquals(MqttsMessage.RETURN_CODE_REJECTED_CONGESTION, connack.returnCode());
+  }
+
+  @Test
+  void reusesMessageAfterLongFrame() {
+    copiesFrameLongerThanPooledCopy();
+
+    MqttsFrame puback = copy(ByteBuffer.wrap(new byte[] {7, (byte) MqttsMessage.PUBACK, 0, 5,
+        0x12, 0x34, MqttsMessage.RETURN_CODE_ACCEPTED}));
+    assertEquals(7, puback.length());
+    assertEquals(5, puback.topicId());
+    assertEquals(0x1234, puback.msgId());
+    assertEquals(MqttsMessage.RETURN_CODE_ACCEPTED, puback.returnCode());
+  }
+
+  /**
+   * Copies the message into the reused Message and wraps the copy.
+   */
+  private MqttsFrame copy(ByteBuffer data) {
+    message.setType(Message.MQTTS_FRAME);
+    message.setFrame(data, data.position(), data.remaining());
+    return frame.wrap(message.getFrame(), 0);
+  }
+
+  private static String payload(MqttsFrame frame) {
+    byte[] bytes = new byte[frame.payloadLength()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = frame.buffer().get(frame.payloadOffset() + i);
+    }
+    return new String(bytes);
+  }
+}
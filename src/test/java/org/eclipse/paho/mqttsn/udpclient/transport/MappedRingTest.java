@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A ring written through one mapping of the file and read through another, as the client and
+ * the gateway process do.
+ */
+class MappedRingTest {
+
+  @TempDir
+  File directory;
+
+  private MappedRing producer;
+  private MappedRing consumer;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    File path = new File(directory, "test.ring");
+    producer = MappedRing.create(path, 1024);
+    consumer = MappedRing.attach(path);
+  }
+
+  @AfterEach
+  void tearDown() {
+    producer.close();
+    consumer.close();
+  }
+
+  @Test
+  void roundsCapacityUpToPowerOfTwo() throws Exception {
+    assertEquals(1024, producer.getCapacity());
+    assertEquals(1024, consumer.getCapacity());
+    MappedRing ring = MappedRing.create(new File(directory, "odd.ring"), 1500);
+    assertEquals(2048, ring.getCapacity());
+    ring.close();
+  }
+
+  @Test
+  void passesFramesInOrderAcrossWrapAround() {
+    //frame lengths that do not divide the capacity, so frames are padded at the end
+    for (int i = 0; i < 100; i++) {
+      int length = 1 + (i * 37) % 300;
+      assertTrue(offer(i, length), "frame " + i);
+      ByteBuffer frame = consumer.poll();
+      assertNotNull(frame, "frame " + i);
+      check(frame, i, length);
+      consumer.release();
+    }
+    assertNull(consumer.poll());
+  }
+
+  @Test
+  void refusesFrameWhenFull() {
+    int frames = 0;
+    while (offer(frames, 100)) {
+      frames++;
+    }
+    //104 bytes per record
+    assertEquals(1024 / 104, frames);
+
+    //the space of a read frame is free again only after release()
+    check(consumer.poll(), 0, 100);
+    assertFalse(offer(frames, 100));
+    consumer.release();
+    assertTrue(offer(frames, 100));
+
+    for (int i = 1; i <= frames; i++) {
+      check(consumer.poll(), i, 100);
+      consumer.release();
+    }
+    assertNull(consumer.poll());
+  }
+
+  @Test
+  void refusesFrameLongerThanRing() {
+    assertNull(producer.claim(1024));
+    assertTrue(offer(0, 1020));
+    check(consumer.poll(), 0, 1020);
+  }
+
+  private boolean offer(int seq, int length) {
+    ByteBuffer frame = producer.claim(length);
+    if (frame == null) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      frame.put((byte) (seq + i));
+    }
+    producer.commit();
+    return true;
+  }
+
+  private static void check(ByteBuffer frame, int seq, int length) {
+    assertNotNull(frame, "frame " + seq);
+    assertEquals(length, frame.remaining(), "length of frame " + seq);
+    for (int i = 0; i < length; i++) {
+      assertEquals((byte) (seq + i), frame.get(frame.position() + i), "frame " + seq);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.mqttsn.udpclient.MqttsCallback;
+import org.eclipse.paho.mqttsn.udpclient.MqttsClient;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsConnack;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsFrame;
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A client on a shared memory transport connecting to a {@link SharedMemoryPeer}.
+ */
+class SharedMemoryTransportTest {
+
+  @TempDir
+  File directory;
+
+  @BeforeAll
+  static void quiet() {
+    ClientLogger.setLogLevel(ClientLogger.ERROR);
+  }
+
+  @Test
+  void peerAcceptsConnect() throws Exception {
+    final CountDownLatch connected = new CountDownLatch(1);
+    ClientParameters parameters = new ClientParameters();
+    parameters.setTransport(new SharedMemoryTransport(directory, 4096));
+    MqttsClient client = new MqttsClient(parameters, false);
+    client.registerHandler(new Callback(connected));
+    SharedMemoryPeer peer = new SharedMemoryPeer(directory);
+    try {
+      client.connect("shm-client", true, (short) 60);
+
+      ByteBuffer frame = receive(peer);
+      MqttsFrame connect = new MqttsFrame().wrap(frame, frame.position());
+      assertEquals(MqttsMessage.CONNECT, connect.msgType());
+
+      MqttsConnack connack = new MqttsConnack();
+      connack.setReturnCode(MqttsMessage.RETURN_CODE_ACCEPTED);
+      assertTrue(peer.send(connack));
+      assertTrue(connected.await(5, TimeUnit.SECONDS), "no CONNACK received");
+    } finally {
+      client.terminate();
+      peer.close();
+    }
+  }
+
+  private static ByteBuffer receive(SharedMemoryPeer peer) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    ByteBuffer frame;
+    while ((frame = peer.receive()) == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertNotNull(frame, "nothing sent to the gateway");
+    return frame;
+  }
+
+  private static class Callback implements MqttsCallback {
+
+    private final CountDownLatch connected;
+
+    Callback(CountDownLatch connected) {
+      this.connected = connected;
+    }
+
+    public int publishArrived(boolean retain, int qos, int topicId, byte[] payload) {
+      return 0;
+    }
+
+    public void connected() {
+      connected.countDown();
+    }
+
+    public void disconnected(int returnType) {
+    }
+
+    public void unsubackReceived() {
+    }
+
+    public void subackReceived(int grantedQos, int topicId, int returnCode) {
+    }
+
+    public void pubCompReceived() {
+    }
+
+    public void pubAckReceived(int topicId, int returnCode) {
+    }
+
+    public void regAckReceived(int topicId, int returnCode) {
+    }
+
+    public void registerReceived(int topicId, String topicName) {
+    }
+
+    public void connectSent() {
+    }
+  }
+}
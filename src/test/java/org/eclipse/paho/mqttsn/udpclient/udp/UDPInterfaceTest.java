@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.udp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * An interface with a read thread of its own, which waits on a selector and drains the
+ * non-blocking channel.
+ */
+class UDPInterfaceTest {
+
+  private final static int DATAGRAMS = 200;
+
+  private DatagramChannel gateway;
+  private MsgQueue queue;
+  private UDPInterface udpInterface;
+
+  @BeforeAll
+  static void quiet() {
+    ClientLogger.setLogLevel(ClientLogger.ERROR);
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    gateway = DatagramChannel.open();
+    gateway.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    queue = new MsgQueue();
+    ClientParameters clientParms = new ClientParameters();
+    clientParms.setGatewayAddress(InetAddress.getLoopbackAddress());
+    clientParms.setGatewayPort(((InetSocketAddress) gateway.getLocalAddress()).getPort());
+    udpInterface = new UDPInterface();
+    udpInterface.initialize(queue, clientParms);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    udpInterface.terminate();
+    gateway.close();
+  }
+
+  @Test
+  void readsBurstOfDatagrams() throws Exception {
+    InetSocketAddress client = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        udpInterface.getUdpPort());
+    for (int i = 0; i < DATAGRAMS; i++) {
+      gateway.send(ByteBuffer.wrap(new byte[] {2, (byte) MqttsMessage.PINGRESP}), client);
+    }
+    long deadline = System.currentTimeMillis() + 2000;
+    while (queue.size() < DATAGRAMS && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(DATAGRAMS, queue.size());
+  }
+
+  @Test
+  void terminateStopsReadThreadAndReleasesPort() throws Exception {
+    int port = udpInterface.getUdpPort();
+    udpInterface.terminate();
+    assertFalse(udpInterface.getChannel().isOpen());
+
+    DatagramChannel rebound = DatagramChannel.open();
+    try {
+      rebound.bind(new InetSocketAddress(port));
+    } finally {
+      rebound.close();
+    }
+  }
+}
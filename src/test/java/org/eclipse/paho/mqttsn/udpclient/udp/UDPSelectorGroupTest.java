@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.udp;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Two interfaces read by one shared I/O thread. Whatever happens to one client must not stop
+ * the thread that reads for the other.
+ */
+class UDPSelectorGroupTest {
+
+  private final static long TIMEOUT_MS = 2000;
+
+  private UDPSelectorGroup group;
+  private DatagramChannel gateway;
+  private MsgQueue queueA, queueB;
+  private UDPInterface clientA, clientB;
+
+  @BeforeAll
+  static void quiet() {
+    ClientLogger.setLogLevel(ClientLogger.ERROR);
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    group = new UDPSelectorGroup(1);
+    gateway = DatagramChannel.open();
+    gateway.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    queueA = new MsgQueue();
+    queueB = new MsgQueue();
+    clientA = open(queueA);
+    clientB = open(queueB);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    clientB.terminate();
+    clientA.terminate();
+    group.terminate();
+    gateway.close();
+  }
+
+  @Test
+  void survivesClosedClientQueue() throws Exception {
+    SelectionKey keyA = registered(clientA);
+    queueA.close();
+    send(clientA);
+    //the failing read drops the socket of client A only
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (keyA.isValid() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertFalse(keyA.isValid());
+
+    registered(clientB);
+    send(clientB);
+    assertNotNull(receive(queueB));
+  }
+
+  @Test
+  void terminateCancelsKeyBeforeReturning() throws Exception {
+    SelectionKey keyA = registered(clientA);
+    clientA.terminate();
+    assertFalse(keyA.isValid());
+    //the client closes its queue only now; the I/O thread no longer reads for it
+    queueA.close();
+
+    registered(clientB);
+    send(clientB);
+    assertNotNull(receive(queueB));
+  }
+
+  private UDPInterface open(MsgQueue queue) throws Exception {
+    ClientParameters clientParms = new ClientParameters();
+    clientParms.setGatewayAddress(InetAddress.getLoopbackAddress());
+    clientParms.setGatewayPort(((InetSocketAddress) gateway.getLocalAddress()).getPort());
+    clientParms.setSelectorGroup(group);
+    UDPInterface udpInterface = new UDPInterface();
+    udpInterface.initialize(queue, clientParms);
+    return udpInterface;
+  }
+
+  private static SelectionKey registered(UDPInterface udpInterface) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (udpInterface.getSelectionKey() == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertNotNull(udpInterface.getSelectionKey(), "registered with the I/O thread");
+    return udpInterface.getSelectionKey();
+  }
+
+  private void send(UDPInterface udpInterface) throws Exception {
+    ByteBuffer pingresp = ByteBuffer.wrap(new byte[] {2, (byte) MqttsMessage.PINGRESP});
+    gateway.send(pingresp, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        udpInterface.getUdpPort()));
+  }
+
+  private static Object receive(MsgQueue queue) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (queue.size() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(queue.size() > 0, "message read for the other client");
+    return queue.get();
+  }
+}
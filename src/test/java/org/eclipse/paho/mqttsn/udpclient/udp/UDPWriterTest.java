@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Ian Craggs - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package org.eclipse.paho.mqttsn.udpclient.udp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+import org.eclipse.paho.mqttsn.udpclient.messages.mqttsn.MqttsEncodedMessage;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientLogger;
+import org.eclipse.paho.mqttsn.udpclient.utils.ClientParameters;
+import org.eclipse.paho.mqttsn.udpclient.utils.MsgQueue;
+import org.eclipse.paho.mqttsn.udpclient.utils.TokenBucket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A paced client with a writer of its own: sending faster than the rate slows the sender down,
+ * and a message that finds no space is reported as not sent.
+ */
+class UDPWriterTest {
+
+  private DatagramChannel gateway;
+  private UDPInterface udpInterface;
+
+  @BeforeAll
+  static void quiet() {
+    ClientLogger.setLogLevel(ClientLogger.ERROR);
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    gateway = DatagramChannel.open();
+    gateway.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    if (udpInterface != null) {
+      udpInterface.terminate();
+    }
+    gateway.close();
+  }
+
+  @Test
+  void waitsForSpaceInsteadOfDropping() throws Exception {
+    open(new TokenBucket(0, 0, 400, 1));
+    long start = System.nanoTime();
+    for (int i = 0; i < 200; i++) {
+      assertTrue(udpInterface.sendMsg(MqttsEncodedMessage.PINGREQ_FRAME), "message " + i);
+    }
+    //the 64 datagrams of the ring are taken at once, the others at the rate
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+    assertTrue(elapsedMillis >= 200, "sent too fast: " + elapsedMillis + " ms");
+    assertEquals(0, udpInterface.getWriter().getDroppedFrames());
+  }
+
+  @Test
+  void reportsMessageDroppedWhenRingStaysFull() throws Exception {
+    open(new TokenBucket(0, 0, 1, 1));
+    int sent = 0;
+    while (udpInterface.sendMsg(MqttsEncodedMessage.PINGREQ_FRAME)) {
+      sent++;
+      assertTrue(sent <= 70, "the ring never filled up");
+    }
+    assertTrue(sent >= 64, "dropped before the ring was full: " + sent);
+    assertEquals(1, udpInterface.getWriter().getDroppedFrames());
+    assertFalse(udpInterface.sendMsg(MqttsEncodedMessage.PINGREQ_FRAME));
+  }
+
+  private void open(TokenBucket pacer) throws Exception {
+    ClientParameters clientParms = new ClientParameters();
+    clientParms.setGatewayAddress(InetAddress.getLoopbackAddress());
+    clientParms.setGatewayPort(((InetSocketAddress) gateway.getLocalAddress()).getPort());
+    clientParms.setSendPacer(pacer);
+    udpInterface = new UDPInterface();
+    udpInterface.initialize(new MsgQueue(), clientParms);
+  }
+}